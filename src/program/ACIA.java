@@ -0,0 +1,360 @@
+package program;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// Motorola 6850 ACIA (serial port) at BASE, bridged to host streams (console, file or socket).
+//   BASE+0 read:  status   bit 0 RDRF receive data full, bit 1 TDRE transmit data empty, bit 7 IRQ
+//   BASE+0 write: control  bits 0-1 = 11 master reset, bits 5-6 = 01 transmit IRQ, bit 7 receive IRQ
+//   BASE+1 read:  received byte (clears RDRF), write: byte to send
+// The registers repeat through the page. Bytes cross to and from the host through two
+// lock-free rings; pump threads move them in blocks, so the host sees one read or write
+// call per batch rather than per character. Received bytes reach the data register at
+// most once per character time, from a scheduler event on the CPU thread, so the CPU only
+// ever sees input change at an event (which also bounds idle loop fast-forwarding) and a
+// status poll is just a field read. The IRQ output is a level on the CPU's IRQ line.
+// The transmit side works the same way: TDRE follows the host ring's room at each
+// character time, and drops as soon as a write finds the ring full. Those two changes and
+// the received bytes are everything the host feeds the machine, so a Recording captures
+// them here and a replay feeds them back through receive and setTransmitReady.
+public class ACIA implements Device {
+    public static final int BASE = 0xC000;
+    public static final int SIZE = 0x100;
+    public static final long CYCLES_PER_CHARACTER = 1042; // 9600 baud, 10 bits, at 1 MHz
+
+    private static final int STATUS_RDRF = 0x01;
+    private static final int STATUS_TDRE = 0x02;
+    private static final int STATUS_IRQ = 0x80;
+    private static final int BLOCK = 4096;
+    private static final long IDLE_WAIT = 1_000_000; // ns a pump sleeps when there is nothing to move
+    private static final long FLUSH_WAIT = 1000;     // ms disconnect waits for each pump (output meanwhile reaches the host)
+
+    private final CPU cpu;
+    private final Scheduler scheduler;
+    private final ByteRing received = new ByteRing(BLOCK * 4); // Host to CPU
+    private final ByteRing sent = new ByteRing(BLOCK * 4);     // CPU to host
+    private long cyclesPerCharacter = CYCLES_PER_CHARACTER;
+
+    // Register state, CPU thread only
+    private int control = 0x03;
+    private int data;
+    private boolean full;
+    private boolean irq;
+    private boolean transmitReady = true; // TDRE: the host ring had room when last looked at
+    private Scheduler.Event tick;
+    private int hashedRegisters = -1; // Status and data the cached page hash was taken for
+    private long pageHash;
+    private Recording recording; // Notified of host input, null when not recording
+    private boolean replaying;   // Host input comes from a replay instead of the rings
+
+    private volatile boolean connected;
+    private volatile boolean stopRequested;
+    private volatile Thread input; // The pump exits when this is no longer its own thread
+    private Thread consoleInput;   // Pump reading System.in, which no close can wake: kept for the next connection
+    private Thread output;
+    private InputStream inStream;
+    private OutputStream outStream;
+
+    public ACIA(CPU cpu, Scheduler scheduler) {
+        this.cpu = cpu;
+        this.scheduler = scheduler;
+        scheduler.setRestorer("ACIA", cycle -> {
+            if (tick != null) {
+                scheduler.cancel(tick);
+            }
+            tick = connected ? scheduler.schedule(cycle, "ACIA", this::tick) : null;
+        });
+    }
+
+    @Override
+    public int read(int address) {
+        if ((address & 1) == 0) {
+            return status();
+        }
+        full = false;
+        updateIrq();
+        return data;
+    }
+
+    @Override
+    public int peek(int address) {
+        return (address & 1) == 0 ? status() : data;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        if ((address & 1) == 0) {
+            control = value & 0xFF;
+            if ((control & 0x03) == 0x03) {
+                full = false;
+            }
+        } else if (!sent.offer(value) && !replaying && transmitReady) {
+            // Dropped: the host is too slow and the program ignored TDRE
+            setTransmitReady(false);
+            if (recording != null) {
+                recording.transmitReady(cpu.cycles, false);
+            }
+        }
+        updateIrq();
+    }
+
+    @Override
+    public void reset() {
+        control = 0x03;
+        full = false;
+        updateIrq();
+    }
+
+    // Registers and character time (bytes still in the host rings are not part of the machine)
+    @Override
+    public byte[] saveState() {
+        return ByteBuffer.allocate(12).put((byte) control).put((byte) data).put((byte) (full ? 1 : 0))
+                .putLong(cyclesPerCharacter).put((byte) (transmitReady ? 1 : 0)).array();
+    }
+
+    @Override
+    public void restoreState(byte[] state) {
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+        control = buffer.get() & 0xFF;
+        data = buffer.get() & 0xFF;
+        full = buffer.get() != 0;
+        cyclesPerCharacter = buffer.getLong();
+        transmitReady = buffer.get() != 0;
+        updateIrq();
+    }
+
+    // The page's bytes (status at even addresses, data at odd) plus the control register,
+    // which reads don't show. The page term only changes with status or data, so it's cached.
+    @Override
+    public long stateHash() {
+        int registers = status() << 8 | data;
+        if (registers != hashedRegisters) {
+            long sum = 0;
+            for (int address = BASE; address < BASE + SIZE; address++) {
+                sum ^= Memory.hashOf(address, (address & 1) == 0 ? status() : data);
+            }
+            pageHash = sum;
+            hashedRegisters = registers;
+        }
+        return pageHash ^ Memory.mix(0xAC1A0000L | control);
+    }
+
+    private int status() {
+        return (full ? STATUS_RDRF : 0) | (transmitReady ? STATUS_TDRE : 0) | (irq ? STATUS_IRQ : 0);
+    }
+
+    private void updateIrq() {
+        boolean receiveIrq = (control & 0x80) != 0 && full;
+        boolean transmitIrq = (control & 0x60) == 0x20 && transmitReady;
+        boolean level = (control & 0x03) != 0x03 && (receiveIrq || transmitIrq);
+        if (level != irq) {
+            irq = level;
+            cpu.setInterruptLine(CPU.INT_IRQ, level);
+        }
+    }
+
+    // One character time: latch the next host byte if the program took the last one, and
+    // look at the room left for sending. A replay supplies both instead.
+    private void tick() {
+        if (!replaying) {
+            if (!full) {
+                int value = received.poll();
+                if (value >= 0) {
+                    data = value;
+                    full = true;
+                    if (recording != null) {
+                        recording.serialInput(cpu.cycles, value);
+                    }
+                }
+            }
+            boolean room = sent.hasRoom();
+            if (room != transmitReady) {
+                transmitReady = room;
+                if (recording != null) {
+                    recording.transmitReady(cpu.cycles, room);
+                }
+            }
+        }
+        updateIrq();
+        tick = connected ? scheduler.schedule(tick.cycle + cyclesPerCharacter, "ACIA", this::tick) : null;
+    }
+
+    // Start receiving at character-time intervals (again after the scheduler was cleared)
+    public void arm() {
+        if (tick != null) {
+            scheduler.cancel(tick);
+            tick = null;
+        }
+        if (connected) {
+            tick = scheduler.schedule(cpu.cycles + cyclesPerCharacter, "ACIA", this::tick);
+        }
+    }
+
+    // A byte from the host reaches the data register (replay)
+    void receive(int value) {
+        data = value & 0xFF;
+        full = true;
+        updateIrq();
+    }
+
+    // TDRE as the host ring left it (replay)
+    void setTransmitReady(boolean ready) {
+        transmitReady = ready;
+        updateIrq();
+    }
+
+    // Report host input to recording (null to stop); CPU thread or under the simulator's lock
+    void setRecording(Recording recording) {
+        this.recording = recording;
+    }
+
+    // While replaying, host input and ring room are ignored and come from the replay instead
+    void setReplaying(boolean replaying) {
+        this.replaying = replaying;
+    }
+
+    public void setCyclesPerCharacter(long cycles) {
+        if (cycles < 1) {
+            throw new IllegalArgumentException("Character time must be at least one cycle");
+        }
+        cyclesPerCharacter = cycles;
+    }
+
+    public long getCyclesPerCharacter() {
+        return cyclesPerCharacter;
+    }
+
+    // Bridge to host streams, either may be null, closing the previous ones; call arm
+    // afterwards under the simulator's lock. May block for a while, so don't hold that lock.
+    public synchronized void connect(InputStream in, OutputStream out) {
+        disconnect();
+        stopRequested = false;
+        connected = true;
+        inStream = in;
+        outStream = out;
+        if (in == System.in && consoleInput != null && consoleInput.isAlive()) {
+            input = consoleInput; // Still blocked in a read from the last connection
+        } else if (in != null) {
+            input = new Thread(() -> pumpInput(in), "acia-in");
+            input.setDaemon(true);
+            input.start();
+            if (in == System.in) {
+                consoleInput = input;
+            }
+        }
+        if (out != null) {
+            output = new Thread(() -> pumpOutput(out), "acia-out");
+            output.setDaemon(true);
+            output.start();
+        }
+    }
+
+    // Stop the pumps and close the streams (and so a socket behind them). What the program
+    // has sent gets FLUSH_WAIT to reach the host; a host that stopped reading loses the rest.
+    // Returns once both pumps have exited, so the ring never has two producers or consumers,
+    // except for a console input pump: it can't be woken, so it is left blocked in its read
+    // and checks ownsInput before delivering what it reads.
+    public synchronized void disconnect() {
+        stopRequested = true;
+        connected = false;
+        Thread oldInput = input;
+        Thread oldOutput = output;
+        input = null;
+        output = null;
+        try {
+            if (oldOutput != null) {
+                oldOutput.join(FLUSH_WAIT);
+            }
+            close(inStream);  // Ends a blocked read
+            close(outStream); // Ends a blocked write
+            if (oldInput != null) {
+                oldInput.join(FLUSH_WAIT);
+            }
+            if (oldOutput != null) {
+                oldOutput.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        inStream = null;
+        outStream = null;
+    }
+
+    // The console streams stay open for the rest of the program
+    private static void close(Closeable stream) {
+        if (stream == null || stream == System.in || stream == System.out) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    // Whether the calling pump still feeds the ring. A console pump that doesn't gives up
+    // its place here, under the lock, so connect never adopts a pump that is exiting.
+    private synchronized boolean ownsInput() {
+        if (input == Thread.currentThread()) {
+            return true;
+        }
+        if (consoleInput == Thread.currentThread()) {
+            consoleInput = null;
+        }
+        return false;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // Host to ring, a block per read call; waits while the ring is full
+    private void pumpInput(InputStream in) {
+        byte[] buffer = new byte[BLOCK];
+        try {
+            int count;
+            while ((count = in.read(buffer)) >= 0 && ownsInput()) {
+                int offset = 0;
+                while (offset < count && input == Thread.currentThread()) {
+                    offset += received.offer(buffer, offset, count - offset);
+                    if (offset < count) {
+                        LockSupport.parkNanos(IDLE_WAIT);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!stopRequested) { // Otherwise disconnect closed it
+                System.err.println("ACIA input closed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Ring to host, everything pending per write call, flushed once the ring is drained
+    private void pumpOutput(OutputStream out) {
+        byte[] buffer = new byte[BLOCK];
+        try {
+            while (true) {
+                int count = sent.poll(buffer, 0, buffer.length);
+                if (count > 0) {
+                    out.write(buffer, 0, count);
+                    if (sent.isEmpty()) {
+                        out.flush();
+                    }
+                } else if (stopRequested) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            if (!stopRequested) { // Otherwise disconnect closed it
+                System.err.println("ACIA output closed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,27 +1,92 @@
 package program;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Assembler {
     private List<Instruction> instructions;
+    private LinkedImage image;
+    private MemoryMap memoryMap;
+    private Path includeDirectory;
+    private Map<String, String> defines;
     private String errorMessage;
     
     public Assembler() {
         instructions = new ArrayList<>();
+        image = null;
+        memoryMap = MemoryMap.singleFileMap();
+        includeDirectory = Paths.get("");
+        defines = new TreeMap<>();
         errorMessage = null;
     }
     
+    // Directory INCLUDE paths are resolved against
+    public void setIncludeDirectory(Path includeDirectory) {
+        this.includeDirectory = includeDirectory;
+    }
+    
+    // Predefine a symbol for IF/IFDEF
+    public void define(String name, String value) {
+        defines.put(name.toUpperCase(), value);
+    }
+    
+    // Memory map used to link single-file programs
+    public void setMemoryMap(MemoryMap memoryMap) {
+        this.memoryMap = memoryMap;
+    }
+    
+    // Options that change the assembled output, as text for cache keys
+    public String getOptionsKey() {
+        return memoryMap + "\n" + includeDirectory.toAbsolutePath() + "\n" + defines;
+    }
+    
     // Assemble the source code
     public boolean assemble(String sourceCode) {
+        image = null;
+        ObjectModule module = assembleModule("main", sourceCode);
+        if (module == null) {
+            return false;
+        }
+        
+        // A single file is linked on its own
+        Linker linker = new Linker();
+        if (!linker.link(Collections.singletonList(module), memoryMap)) {
+            errorMessage = linker.getErrorMessage();
+            return false;
+        }
+        image = linker.getImage();
+        return true;
+    }
+    
+    // Assemble one source file into a relocatable module (null on error)
+    public ObjectModule assembleModule(String name, String sourceCode) {
         instructions.clear();
         errorMessage = null;
         
-        String[] lines = sourceCode.split("\n");
+        // Expand includes, macros and conditionals first
+        Preprocessor preprocessor = new Preprocessor(includeDirectory, defines);
+        List<Preprocessor.SourceLine> lines = preprocessor.process(sourceCode);
+        if (lines == null) {
+            errorMessage = preprocessor.getErrorMessage();
+            return null;
+        }
+        
+        ObjectModule module = new ObjectModule(name, hash(sourceCode));
+        module.getDependencies().putAll(preprocessor.getDependencies());
+        ObjectModule.Section section = module.getSection(ObjectModule.DEFAULT_SECTION);
+        
         boolean foundEnd = false;
         
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
+        for (Preprocessor.SourceLine sourceLine : lines) {
+            String line = sourceLine.text.trim();
             
             // Skip empty lines and comments
             if (line.isEmpty() || line.startsWith(";")) {
@@ -34,35 +99,96 @@ public class Assembler {
                 break;
             }
             
-            // Parse the instruction
             try {
+                line = stripComment(line);
+                
+                // Label definition ("LOOP:" or "LOOP: DECB")
+                int colonIndex = line.indexOf(':');
+                if (colonIndex > 0 && isSymbol(line.substring(0, colonIndex))) {
+                    module.defineSymbol(line.substring(0, colonIndex), section.name, section.getSize());
+                    line = line.substring(colonIndex + 1).trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (line.equalsIgnoreCase("END")) {
+                        foundEnd = true;
+                        break;
+                    }
+                }
+                
+                // Module directives
+                String[] parts = line.split("\\s+", 2);
+                String keyword = parts[0].toUpperCase();
+                if (keyword.equals("SECTION") && parts.length == 2) {
+                    section = module.getSection(parts[1].trim().toUpperCase());
+                    continue;
+                }
+                if (keyword.equals("EXPORT") && parts.length == 2) {
+                    for (String symbol : parts[1].split(",")) {
+                        module.exportSymbol(symbol.trim());
+                    }
+                    continue;
+                }
+                
+                // Parse the instruction
                 Instruction instr = parseLine(line);
                 if (instr != null) {
+                    module.addLine(section.name, section.getSize(), sourceLine.file, sourceLine.line);
+                    emit(module, section, instr);
                     instructions.add(instr);
                 }
             } catch (Exception e) {
-                errorMessage = "Syntax Error at line " + (i + 1) + ": " + line;
-                return false;
+                errorMessage = "Syntax Error at " + sourceLine.location() + ": " + line;
+                return null;
             }
         }
         
         // Check if END was found
         if (!foundEnd) {
             errorMessage = "Error: Program must end with 'END' directive";
-            return false;
+            return null;
         }
         
-        return true;
+        for (String export : module.getExports()) {
+            if (!module.getSymbols().containsKey(export)) {
+                errorMessage = "Error: Exported symbol " + export + " is not defined";
+                return null;
+            }
+        }
+        
+        return module;
     }
     
-    // Parse a single line of assembly
-    private Instruction parseLine(String line) throws Exception {
-        // Remove comments
+    // Write the instruction bytes, recording a fixup for symbolic operands
+    private void emit(ObjectModule module, ObjectModule.Section section, Instruction instr) {
+        section.emit(instr.opcode);
+        
+        if (instr.symbol != null) {
+            int kind = instr.addressMode.equals("RELATIVE") ? ObjectModule.FIXUP_REL8 : ObjectModule.FIXUP_ABS16;
+            module.addFixup(section.name, section.getSize(), kind, instr.symbol);
+        }
+        
+        // Write operand if needed
+        if (instr.size == 2) {
+            section.emit(instr.operand & 0xFF);
+        } else if (instr.size == 3) {
+            section.emit((instr.operand >> 8) & 0xFF); // High byte
+            section.emit(instr.operand & 0xFF);        // Low byte
+        }
+    }
+    
+    private String stripComment(String line) {
         int commentIndex = line.indexOf(';');
         if (commentIndex != -1) {
             line = line.substring(0, commentIndex);
         }
-        line = line.trim();
+        return line.trim();
+    }
+    
+    // Parse a single line of assembly
+    private Instruction parseLine(String line) throws Exception {
+        // Remove comments
+        line = stripComment(line);
         
         if (line.isEmpty()) {
             return null;
@@ -88,13 +214,49 @@ public class Assembler {
         // Has operand
         String operandStr = parts[1];
         
-        // Immediate addressing (#$XX or #XX)
+        // Immediate addressing (#$XX, #XX or #LABEL)
         if (operandStr.startsWith("#")) {
             operandStr = operandStr.substring(1); // Remove #
+            if (isSymbol(operandStr)) {
+                Instruction instr = new Instruction(mnemonic, "IMMEDIATE", 0);
+                if (!instr.is16BitImmediate()) {
+                    throw new Exception("Label used as 8-bit immediate");
+                }
+                instr.symbol = operandStr;
+                return instr;
+            }
             int value = parseValue(operandStr);
             return new Instruction(mnemonic, "IMMEDIATE", value);
         }
         
+        // ANDCC/ORCC only take an immediate mask
+        if (mnemonic.equals("ANDCC") || mnemonic.equals("ORCC")) {
+            throw new Exception(mnemonic + " requires an immediate operand");
+        }
+        
+        // Relative addressing (label or raw 8-bit offset)
+        if (Instruction.isBranch(mnemonic)) {
+            Instruction instr;
+            if (isSymbol(operandStr)) {
+                instr = new Instruction(mnemonic, "RELATIVE", 0);
+                instr.symbol = operandStr;
+            } else {
+                int offset = parseValue(operandStr);
+                if (offset > 0xFF) {
+                    throw new Exception("Branch offset out of range");
+                }
+                instr = new Instruction(mnemonic, "RELATIVE", offset);
+            }
+            return instr;
+        }
+        
+        // Labels are always 16-bit since their address is only known after linking
+        if (isSymbol(operandStr)) {
+            Instruction instr = new Instruction(mnemonic, "EXTENDED", 0);
+            instr.symbol = operandStr;
+            return instr;
+        }
+        
         // Direct or Extended addressing ($XX or $XXXX)
         int address = parseValue(operandStr);
         
@@ -106,6 +268,20 @@ public class Assembler {
         }
     }
     
+    // Labels start with a letter or underscore
+    private boolean isSymbol(String str) {
+        if (str.isEmpty() || !(Character.isLetter(str.charAt(0)) || str.charAt(0) == '_')) {
+            return false;
+        }
+        for (int i = 1; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     // Check if instruction is inherent (no operand)
     private boolean isInherentInstruction(String mnemonic) {
         switch (mnemonic) {
@@ -114,6 +290,7 @@ public class Assembler {
             case "INCB":
             case "DECA":
             case "DECB":
+            case "RTI":
                 return true;
             default:
                 return false;
@@ -134,19 +311,23 @@ public class Assembler {
     
     // Load assembled program into memory
     public void loadIntoMemory(Memory memory) {
-        int address = 0x0000; // Start at beginning of RAM
-        
-        for (Instruction instr : instructions) {
-            // Write opcode
-            memory.write(address++, instr.opcode);
-            
-            // Write operand if needed
-            if (instr.size == 2) {
-                memory.write(address++, instr.operand & 0xFF);
-            } else if (instr.size == 3) {
-                memory.write(address++, (instr.operand >> 8) & 0xFF); // High byte
-                memory.write(address++, instr.operand & 0xFF);        // Low byte
+        if (image != null) {
+            image.loadInto(memory);
+        }
+    }
+    
+    // SHA-256 of a source text, used to tell whether a module changed
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : bytes) {
+                hex.append(String.format("%02x", b & 0xFF));
             }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
     
@@ -154,6 +335,10 @@ public class Assembler {
         return instructions;
     }
     
+    public LinkedImage getImage() {
+        return image;
+    }
+    
     public String getErrorMessage() {
         return errorMessage;
     }
@@ -0,0 +1,159 @@
+package program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// On-disk cache of linked images keyed by a hash of the source text and assembler options.
+// Entries are evicted least recently used first once the total size goes over the limit;
+// a file's modification time records its last use so the order survives restarts.
+public class AssemblyCache {
+    private static final String SUFFIX = ".img";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true); // key -> file size
+    private long totalBytes;
+    private int hits;
+    private int misses;
+
+    public AssemblyCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+
+        // Rebuild the LRU order from the files already on disk, oldest first
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> f.getFileName().toString().endsWith(SUFFIX))
+                 .sorted(Comparator.comparing(AssemblyCache::lastModified))
+                 .forEach(f -> {
+                     String name = f.getFileName().toString();
+                     long size = size(f);
+                     entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                     totalBytes += size;
+                 });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Cache key for a source assembled with the given options
+    public static String key(String sourceCode, String options) {
+        return Assembler.hash(sourceCode + "\0" + options);
+    }
+
+    // Cached image for the key, or null
+    public synchronized LinkedImage get(String key) {
+        if (!entries.containsKey(key)) {
+            misses++;
+            return null;
+        }
+        Path file = directory.resolve(key + SUFFIX);
+        LinkedImage image;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            image = LinkedImage.readFrom(in);
+        } catch (IOException e) {
+            image = null; // Missing or corrupt entry
+        }
+
+        // Also stale if an included file was edited since the entry was stored
+        if (image == null || !Preprocessor.isUnchanged(image.getDependencies())) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+        hits++;
+        return image;
+    }
+
+    public synchronized void put(String key, LinkedImage image) {
+        Path file = directory.resolve(key + SUFFIX);
+        Path temp = directory.resolve(key + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                image.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Caching is best effort, assembling still succeeded
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        Long previous = entries.put(key, size(file));
+        totalBytes += entries.get(key) - (previous != null ? previous : 0);
+        evict();
+    }
+
+    // Drop least recently used entries until the cache fits (the newest entry always stays)
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + SUFFIX));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(key + SUFFIX));
+        } catch (IOException ignored) {
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package program;
+
+// Runs one program over many inputs at once. The machine states of all lanes live in
+// primitive arrays (every lane's A in regA, and so on) and lanes at the same PC execute
+// each instruction together: the opcode is decoded once and applied across the group.
+// When a branch sends lanes different ways they split into groups by PC, and the group
+// with the lowest PC runs first so they tend to meet again after the branch.
+// Memory is one shared 64K image plus copy-on-write 256-byte pages per lane, so a lane
+// only pays for the pages it writes. Registers and flags behave exactly as in CPU, with
+// the same cycle counts; there are no interrupts in batch runs.
+// "java program.BatchInterpreter [lanes]" checks this against CPU (see main).
+public class BatchInterpreter {
+    private static final int FLAG_Z = 0x04;
+    private static final int FLAG_N = 0x08;
+    private static final int FLAG_C = 0x01;
+
+    // Program run by main
+    private static final String CHECK_PROGRAM = String.join("\n",
+            "START: LDA $4010",
+            "STA $4011",
+            "LDA #$00",
+            "LDB $4012",
+            "BEQ DONE",
+            "LOOP: ADDA $4011",
+            "DECB",
+            "BNE LOOP",
+            "DONE: STA $4020",
+            "STB $4021",
+            "LDX #$1234",
+            "STX $4022",
+            "END", "");
+
+    // Lane state, indexed by lane
+    public final int[] regA, regB, regX, regY, regS, regU, regPC, regDP, regCC;
+    public final long[] cycles, instructions;
+    public final boolean[] halted;
+
+    private final int lanes;
+    private final byte[] base;       // Shared memory image
+    private final byte[][][] pages;  // [page][lane], null until a lane writes the page
+    private final long baseHash;     // State hash of the template's memory, devices included
+
+    // Scratch lane lists
+    private int[] active;
+    private int activeCount;
+    private final int[] group;
+
+    // Lanes start from template's memory, reset as CPU.reset would
+    public BatchInterpreter(Memory template, int lanes) {
+        this.lanes = lanes;
+        base = template.dump(0x0000, 0x10000);
+        baseHash = template.getStateHash();
+        pages = new byte[256][][];
+        regA = new int[lanes];
+        regB = new int[lanes];
+        regX = new int[lanes];
+        regY = new int[lanes];
+        regS = new int[lanes];
+        regU = new int[lanes];
+        regPC = new int[lanes];
+        regDP = new int[lanes];
+        regCC = new int[lanes];
+        cycles = new long[lanes];
+        instructions = new long[lanes];
+        halted = new boolean[lanes];
+        group = new int[lanes];
+
+        int reset = (base[0xFFFE] & 0xFF) << 8 | (base[0xFFFF] & 0xFF);
+        for (int lane = 0; lane < lanes; lane++) {
+            regPC[lane] = reset;
+            regCC[lane] = 0x10;
+            regS[lane] = 0x8000;
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes;
+    }
+
+    // State hash of a lane, computed as CPU.getStateHash would be for the same registers and
+    // memory. Starts from the template's hash and swaps in only the lane's own pages, so it
+    // costs 256 terms per page the lane wrote rather than 64K. Device bytes hash as plain
+    // memory does (Device.stateHash), so a lane writing a device page swaps them the same way.
+    public long stateHash(int lane) {
+        long hash = baseHash;
+        for (int page = 0; page < 256; page++) {
+            byte[][] copies = pages[page];
+            if (copies != null && copies[lane] != null) {
+                for (int i = 0; i < 256; i++) {
+                    int address = page << 8 | i;
+                    hash ^= Memory.hashOf(address, base[address] & 0xFF) ^ Memory.hashOf(address, copies[lane][i] & 0xFF);
+                }
+            }
+        }
+        return hash ^ CPU.registerHash(regA[lane], regB[lane], regX[lane], regY[lane], regS[lane], regU[lane],
+                regPC[lane], regDP[lane], regCC[lane], halted[lane]);
+    }
+
+    // Read a lane's memory
+    public int read(int lane, int address) {
+        address &= 0xFFFF;
+        byte[][] copies = pages[address >> 8];
+        if (copies != null) {
+            byte[] page = copies[lane];
+            if (page != null) {
+                return page[address & 0xFF] & 0xFF;
+            }
+        }
+        return base[address] & 0xFF;
+    }
+
+    // Set a byte of a lane's memory, e.g. an input (ROM included)
+    public void write(int lane, int address, int value) {
+        address &= 0xFFFF;
+        byte[][] copies = pages[address >> 8];
+        if (copies == null) {
+            copies = new byte[lanes][];
+            pages[address >> 8] = copies;
+        }
+        byte[] page = copies[lane];
+        if (page == null) {
+            page = new byte[256];
+            System.arraycopy(base, address & 0xFF00, page, 0, 256);
+            copies[lane] = page;
+        }
+        page[address & 0xFF] = (byte) value;
+    }
+
+    // A store by the program (ROM writes are ignored, as in Memory)
+    private void store(int lane, int address, int value) {
+        address &= 0xFFFF;
+        if (address < 0x8000) {
+            write(lane, address, value);
+        }
+    }
+
+    // Run until every lane has halted or used maxCycles; returns the number of lanes still running
+    public int run(long maxCycles) {
+        active = new int[lanes];
+        activeCount = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            if (!halted[lane] && cycles[lane] < maxCycles) {
+                active[activeCount++] = lane;
+            }
+        }
+
+        while (activeCount > 0) {
+            // Drop finished lanes and find the lowest PC
+            int count = 0;
+            int pc = Integer.MAX_VALUE;
+            int first = -1;
+            boolean same = true;
+            for (int i = 0; i < activeCount; i++) {
+                int lane = active[i];
+                if (halted[lane] || cycles[lane] >= maxCycles) {
+                    continue;
+                }
+                active[count++] = lane;
+                if (first < 0) {
+                    first = regPC[lane];
+                } else if (regPC[lane] != first) {
+                    same = false;
+                }
+                pc = Math.min(pc, regPC[lane]);
+            }
+            activeCount = count;
+            if (count == 0) {
+                break;
+            }
+
+            // Lanes at that PC whose code bytes match the leader's run together
+            // (code only needs comparing when some lane has written to its page)
+            int leader = -1;
+            int size = 0;
+            int[] members = group;
+            boolean privateCode = pages[pc >> 8] != null || pages[((pc + 2) & 0xFFFF) >> 8] != null;
+            if (same && !privateCode) {
+                members = active;
+                leader = active[0];
+                size = count;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    int lane = active[i];
+                    if (regPC[lane] != pc) {
+                        continue;
+                    }
+                    if (leader < 0) {
+                        leader = lane;
+                    } else if (privateCode && !sameCode(leader, lane, pc)) {
+                        continue;
+                    }
+                    group[size++] = lane;
+                }
+            }
+            execute(leader, pc, members, size);
+        }
+        return activeCount;
+    }
+
+    private boolean sameCode(int leader, int lane, int pc) {
+        for (int i = 0; i < 3; i++) {
+            if (read(leader, pc + i) != read(lane, pc + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int nz8(int value) {
+        value &= 0xFF;
+        return (value == 0 ? FLAG_Z : 0) | (value & 0x80) >> 4;
+    }
+
+    private static int nz16(int value) {
+        value &= 0xFFFF;
+        return (value == 0 ? FLAG_Z : 0) | (value & 0x8000) >> 12;
+    }
+
+    // Execute the instruction at pc (decoded from the leader) on every lane in members
+    private void execute(int leader, int pc, int[] members, int size) {
+        int opcode = read(leader, pc);
+        int op1 = read(leader, pc + 1);
+        int word = op1 << 8 | read(leader, pc + 2);
+        int cost = CPU.cyclesOf(opcode);
+
+        // Addressing of the 8-bit ALU opcodes: immediate, direct or extended
+        int mode = opcode & 0x30;
+        boolean immediate = mode == 0x00;
+        int address = mode == 0x10 ? op1 : word;
+        int length = mode == 0x30 ? 3 : 2;
+
+        switch (opcode) {
+            // LDA / LDB
+            case 0x86: case 0x96: case 0xB6:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int value = immediate ? op1 : read(lane, address);
+                    regA[lane] = value;
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z) | nz8(value);
+                }
+                break;
+            case 0xC6: case 0xD6: case 0xF6:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int value = immediate ? op1 : read(lane, address);
+                    regB[lane] = value;
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z) | nz8(value);
+                }
+                break;
+
+            // LDX
+            case 0x8E: case 0x9E: case 0xBE:
+                length = opcode == 0x9E ? 2 : 3;
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int value = opcode == 0x8E ? word : (read(lane, address) << 8 | read(lane, address + 1));
+                    regX[lane] = value;
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z) | nz16(value);
+                }
+                break;
+
+            // STA / STB / STX
+            case 0x97: case 0xB7:
+                for (int i = 0; i < size; i++) {
+                    store(members[i], address, regA[members[i]]);
+                }
+                break;
+            case 0xD7: case 0xF7:
+                for (int i = 0; i < size; i++) {
+                    store(members[i], address, regB[members[i]]);
+                }
+                break;
+            case 0x9F: case 0xBF:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    store(lane, address, regX[lane] >> 8);
+                    store(lane, address + 1, regX[lane]);
+                }
+                break;
+
+            // ADDA / ADDB / SUBA / SUBB
+            case 0x8B: case 0x9B: case 0xBB:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int result = regA[lane] + (immediate ? op1 : read(lane, address));
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z | FLAG_C) | nz8(result) | (result > 0xFF ? FLAG_C : 0);
+                    regA[lane] = result & 0xFF;
+                }
+                break;
+            case 0xCB: case 0xDB: case 0xFB:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int result = regB[lane] + (immediate ? op1 : read(lane, address));
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z | FLAG_C) | nz8(result) | (result > 0xFF ? FLAG_C : 0);
+                    regB[lane] = result & 0xFF;
+                }
+                break;
+            case 0x80: case 0x90: case 0xB0:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int result = regA[lane] - (immediate ? op1 : read(lane, address));
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z | FLAG_C) | nz8(result) | (result < 0 ? FLAG_C : 0);
+                    regA[lane] = result & 0xFF;
+                }
+                break;
+            case 0xC0: case 0xD0: case 0xF0:
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    int result = regB[lane] - (immediate ? op1 : read(lane, address));
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z | FLAG_C) | nz8(result) | (result < 0 ? FLAG_C : 0);
+                    regB[lane] = result & 0xFF;
+                }
+                break;
+
+            // INCA / INCB / DECA / DECB
+            case 0x4C: case 0x4A:
+                length = 1;
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    regA[lane] = (regA[lane] + (opcode == 0x4C ? 1 : -1)) & 0xFF;
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z) | nz8(regA[lane]);
+                }
+                break;
+            case 0x5C: case 0x5A:
+                length = 1;
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    regB[lane] = (regB[lane] + (opcode == 0x5C ? 1 : -1)) & 0xFF;
+                    regCC[lane] = regCC[lane] & ~(FLAG_N | FLAG_Z) | nz8(regB[lane]);
+                }
+                break;
+
+            // BRA / BEQ / BNE: this is where lanes diverge
+            case 0x20: case 0x27: case 0x26: {
+                int next = (pc + 2) & 0xFFFF;
+                int target = (next + (byte) op1) & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    int lane = members[i];
+                    boolean zero = (regCC[lane] & FLAG_Z) != 0;
+                    boolean taken = opcode == 0x20 || (opcode == 0x27) == zero;
+                    regPC[lane] = taken ? target : next;
+                    cycles[lane] += cost;
+                    instructions[lane]++;
+                }
+                return;
+            }
+
+            // NOP / ANDCC / ORCC
+            case 0x12:
+                length = 1;
+                break;
+            case 0x1C:
+                for (int i = 0; i < size; i++) {
+                    regCC[members[i]] &= op1;
+                }
+                break;
+            case 0x1A:
+                for (int i = 0; i < size; i++) {
+                    regCC[members[i]] |= op1;
+                }
+                break;
+
+            // END and unknown opcodes halt, as does RTI since there are no interrupts here
+            default:
+                length = 1;
+                for (int i = 0; i < size; i++) {
+                    halted[members[i]] = true;
+                }
+                break;
+        }
+
+        int next = (pc + length) & 0xFFFF;
+        for (int i = 0; i < size; i++) {
+            int lane = members[i];
+            regPC[lane] = next;
+            cycles[lane] += cost;
+            instructions[lane]++;
+        }
+    }
+
+    // Check against CPU: CHECK_PROGRAM, a multiply by repeated addition, over every A/B pair (65536 lanes
+    // unless given), whose loops diverge with B. Each lane is run again on its own CPU and
+    // Memory and must end with the same registers, cycle and instruction counts and state
+    // hash. Prints the mismatches and both run times; exits with 1 on any mismatch.
+    public static void main(String[] args) {
+        int lanes = args.length > 0 ? Integer.parseInt(args[0]) : 0x10000;
+        Assembler assembler = new Assembler();
+        if (!assembler.assemble(CHECK_PROGRAM)) {
+            throw new IllegalStateException(assembler.getErrorMessage());
+        }
+        LinkedImage image = assembler.getImage();
+        Memory template = new Memory();
+        image.loadInto(template);
+
+        long start = System.nanoTime();
+        BatchInterpreter batch = new BatchInterpreter(template, lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            batch.write(lane, 0x4010, lane & 0xFF);
+            batch.write(lane, 0x4012, lane >> 8 & 0xFF);
+        }
+        int running = batch.run(1_000_000);
+        long batchNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int mismatches = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            Memory memory = new Memory();
+            image.loadInto(memory);
+            memory.write(0x4010, lane & 0xFF);
+            memory.write(0x4012, lane >> 8 & 0xFF);
+            CPU cpu = new CPU(memory);
+            while (!cpu.halted && cpu.cycles < 1_000_000) {
+                cpu.execute();
+            }
+            if (cpu.regA != batch.regA[lane] || cpu.regB != batch.regB[lane] || cpu.regX != batch.regX[lane]
+                    || cpu.regY != batch.regY[lane] || cpu.regS != batch.regS[lane] || cpu.regU != batch.regU[lane]
+                    || cpu.regPC != batch.regPC[lane] || cpu.regDP != batch.regDP[lane] || cpu.regCC != batch.regCC[lane]
+                    || cpu.halted != batch.halted[lane] || cpu.cycles != batch.cycles[lane]
+                    || cpu.instructions != batch.instructions[lane] || cpu.getStateHash() != batch.stateHash(lane)) {
+                if (mismatches++ < 10) {
+                    System.out.printf("Lane %d (A=%d, B=%d) differs%n", lane, lane & 0xFF, lane >> 8 & 0xFF);
+                }
+            }
+        }
+        long cpuNanos = System.nanoTime() - start;
+
+        System.out.printf("%d lanes, %d still running, %d mismatches%n", lanes, running, mismatches);
+        System.out.printf("Batch: %.2f s, separate CPUs: %.2f s%n", batchNanos / 1e9, cpuNanos / 1e9);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+}
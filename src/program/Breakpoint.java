@@ -0,0 +1,116 @@
+package program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A breakpoint with a condition, or a tracepoint that logs expressions and carries on.
+// The simulator only looks at one when the PC reaches an address whose breakpoint bit is
+// set, so conditions cost nothing at other addresses. Written as text:
+//   1234                              stop at $1234
+//   1234 if A > $40 && mem[$20] == 0  stop only when the condition holds
+//   1234 trace A, mem[$20]            log A and mem[$20] each time, don't stop
+//   1234 trace X if B == 0            log only when the condition holds
+public class Breakpoint {
+    public final int address;
+    private final Expression condition;   // null: always
+    private final List<Expression> trace; // Empty for a breakpoint
+    private final String text;
+
+    public Breakpoint(int address, String condition, List<String> trace) {
+        this.address = address & 0xFFFF;
+        this.condition = condition == null || condition.trim().isEmpty() ? null : Expression.compile(condition);
+        List<Expression> compiled = new ArrayList<>();
+        for (String expression : trace) {
+            compiled.add(Expression.compile(expression));
+        }
+        this.trace = Collections.unmodifiableList(compiled);
+
+        StringBuilder description = new StringBuilder(String.format("%04X", this.address));
+        if (!compiled.isEmpty()) {
+            description.append(" trace ");
+            for (int i = 0; i < compiled.size(); i++) {
+                description.append(i > 0 ? ", " : "").append(compiled.get(i));
+            }
+        }
+        if (this.condition != null) {
+            description.append(" if ").append(this.condition);
+        }
+        this.text = description.toString();
+    }
+
+    // Parse the text form above (hex address, optional $); IllegalArgumentException if invalid
+    public static Breakpoint parse(String text) {
+        String rest = text.trim();
+        int space = rest.indexOf(' ');
+        String address = space < 0 ? rest : rest.substring(0, space);
+        rest = space < 0 ? "" : rest.substring(space + 1).trim();
+        int value;
+        try {
+            value = Integer.parseInt(address.startsWith("$") ? address.substring(1) : address, 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid address: " + address);
+        }
+
+        String condition = null;
+        int at = indexOfWord(rest, "if");
+        if (at >= 0) {
+            condition = rest.substring(at + 2).trim();
+            rest = rest.substring(0, at).trim();
+        }
+        List<String> trace = new ArrayList<>();
+        if (indexOfWord(rest, "trace") == 0) {
+            for (String expression : rest.substring(5).split(",")) {
+                trace.add(expression.trim());
+            }
+        } else if (!rest.isEmpty()) {
+            throw new IllegalArgumentException("Expected 'if' or 'trace' after the address: " + rest);
+        }
+        return new Breakpoint(value, condition, trace);
+    }
+
+    // Position of word standing on its own (case-insensitive), -1 if absent
+    private static int indexOfWord(String text, String word) {
+        String lower = text.toLowerCase();
+        for (int at = lower.indexOf(word); at >= 0; at = lower.indexOf(word, at + 1)) {
+            boolean before = at == 0 || !Character.isLetterOrDigit(lower.charAt(at - 1));
+            int end = at + word.length();
+            boolean after = end == lower.length() || !Character.isLetterOrDigit(lower.charAt(end));
+            if (before && after) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    // No condition and no trace: stops every time
+    public boolean isPlain() {
+        return condition == null && trace.isEmpty();
+    }
+
+    public boolean isTracepoint() {
+        return !trace.isEmpty();
+    }
+
+    // The PC is at address: log any trace and say whether to stop
+    public boolean hit(CPU cpu, Memory memory, Consumer<String> output) {
+        if (condition != null && !condition.test(cpu, memory)) {
+            return false;
+        }
+        if (trace.isEmpty()) {
+            return true;
+        }
+        StringBuilder line = new StringBuilder(String.format("%d $%04X:", cpu.cycles, address));
+        for (Expression expression : trace) {
+            line.append(' ').append(expression).append("=$").append(Long.toHexString(expression.eval(cpu, memory)).toUpperCase());
+        }
+        output.accept(line.toString());
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
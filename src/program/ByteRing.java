@@ -0,0 +1,106 @@
+package program;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Lock-free byte queue for exactly one producer thread and one consumer thread.
+// Each side publishes its position with a release store and keeps a cached copy of
+// the other side's position, re-reading it (acquire) only when the cache says the
+// ring is full or empty, so the common case touches no shared state.
+public class ByteRing {
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(ByteRing.class, "head", long.class);
+            TAIL = lookup.findVarHandle(ByteRing.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final byte[] buffer;
+    private final int mask;
+    private long head;      // Next byte to take, written by the consumer
+    private long tail;      // Next free slot, written by the producer
+    private long headCache; // Producer's last view of head
+    private long tailCache; // Consumer's last view of tail
+
+    // Capacity is rounded up to a power of two
+    public ByteRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    // Producer: add one byte, false if full
+    public boolean offer(int value) {
+        long t = tail;
+        if (t - headCache == buffer.length) {
+            headCache = (long) HEAD.getAcquire(this);
+            if (t - headCache == buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = (byte) value;
+        TAIL.setRelease(this, t + 1);
+        return true;
+    }
+
+    // Producer: add as many bytes as fit, returns how many
+    public int offer(byte[] data, int offset, int length) {
+        long t = tail;
+        headCache = (long) HEAD.getAcquire(this);
+        int count = (int) Math.min(length, buffer.length - (t - headCache));
+        for (int i = 0; i < count; i++) {
+            buffer[(int) (t + i) & mask] = data[offset + i];
+        }
+        TAIL.setRelease(this, t + count);
+        return count;
+    }
+
+    // Producer: true if offer would succeed
+    public boolean hasRoom() {
+        long t = tail;
+        if (t - headCache == buffer.length) {
+            headCache = (long) HEAD.getAcquire(this);
+        }
+        return t - headCache < buffer.length;
+    }
+
+    // Consumer: take one byte, -1 if empty
+    public int poll() {
+        long h = head;
+        if (h == tailCache) {
+            tailCache = (long) TAIL.getAcquire(this);
+            if (h == tailCache) {
+                return -1;
+            }
+        }
+        int value = buffer[(int) h & mask] & 0xFF;
+        HEAD.setRelease(this, h + 1);
+        return value;
+    }
+
+    // Consumer: take up to length bytes, returns how many
+    public int poll(byte[] out, int offset, int length) {
+        long h = head;
+        tailCache = (long) TAIL.getAcquire(this);
+        int count = (int) Math.min(length, tailCache - h);
+        for (int i = 0; i < count; i++) {
+            out[offset + i] = buffer[(int) (h + i) & mask];
+        }
+        HEAD.setRelease(this, h + count);
+        return count;
+    }
+
+    // Consumer: true if poll would return -1
+    public boolean isEmpty() {
+        long h = head;
+        if (h == tailCache) {
+            tailCache = (long) TAIL.getAcquire(this);
+        }
+        return h == tailCache;
+    }
+}
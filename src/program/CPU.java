@@ -1,5 +1,7 @@
 package program;
 
+import java.util.Arrays;
+
 public class CPU {
 
     // 8 bit Accumulators
@@ -30,6 +32,101 @@ public class CPU {
     // Halted flag
     public boolean halted;
     
+    // Register bits returned by takeChangedRegisters
+    public static final int REG_A = 0x001;
+    public static final int REG_B = 0x002;
+    public static final int REG_X = 0x004;
+    public static final int REG_Y = 0x008;
+    public static final int REG_S = 0x010;
+    public static final int REG_U = 0x020;
+    public static final int REG_PC = 0x040;
+    public static final int REG_DP = 0x080;
+    public static final int REG_CC = 0x100;
+    public static final int REG_ALL = 0x1FF;
+    
+    // Register values as of the last takeChangedRegisters call (A, B, X, Y, S, U, PC, DP, CC)
+    private final int[] syncedRegisters = new int[9];
+    
+    // Execution counters since reset
+    public long cycles;
+    public long instructions;
+    
+    // Clock cycles per opcode
+    private static final int[] CYCLES = new int[256];
+    static {
+        int[][] table = {
+            {0x86, 2}, {0x96, 4}, {0xB6, 5}, // LDA
+            {0xC6, 2}, {0xD6, 4}, {0xF6, 5}, // LDB
+            {0x8E, 3}, {0x9E, 5}, {0xBE, 6}, // LDX
+            {0x97, 4}, {0xB7, 5},            // STA
+            {0xD7, 4}, {0xF7, 5},            // STB
+            {0x9F, 5}, {0xBF, 6},            // STX
+            {0x8B, 2}, {0x9B, 4}, {0xBB, 5}, // ADDA
+            {0xCB, 2}, {0xDB, 4}, {0xFB, 5}, // ADDB
+            {0x80, 2}, {0x90, 4}, {0xB0, 5}, // SUBA
+            {0xC0, 2}, {0xD0, 4}, {0xF0, 5}, // SUBB
+            {0x4C, 2}, {0x5C, 2}, {0x4A, 2}, {0x5A, 2}, // INC/DEC
+            {0x20, 3}, {0x27, 3}, {0x26, 3}, // Branches (same time taken or not)
+            {0x12, 2},                       // NOP
+            {0x1C, 3}, {0x1A, 3},            // ANDCC/ORCC
+            {0x3B, 6},                       // RTI (15 when the entire state was saved)
+        };
+        for (int[] entry : table) {
+            CYCLES[entry[0]] = entry[1];
+        }
+    }
+    
+    // Cycles of an opcode (shared with the batch interpreter)
+    static int cyclesOf(int opcode) {
+        return CYCLES[opcode];
+    }
+    
+    // Superinstructions: opcode pairs that can run fused in one dispatch once they get hot
+    private static final int FUSION_THRESHOLD = 256;
+    private static final boolean[] FUSIBLE = new boolean[0x10000];
+    static {
+        for (int dec : new int[] {0x4A, 0x5A}) {                      // DECA/DECB ; BNE
+            FUSIBLE[(dec << 8) | 0x26] = true;
+        }
+        for (int lda : new int[] {0x86, 0x96, 0xB6}) {
+            for (int sta : new int[] {0x97, 0xB7}) {                  // LDA ; STA
+                FUSIBLE[(lda << 8) | sta] = true;
+            }
+        }
+        for (int lda : new int[] {0x86, 0x96, 0xB6}) {                // LDX # ; LDA
+            FUSIBLE[(0x8E << 8) | lda] = true;
+        }
+    }
+    private final int[] pairCounts = new int[0x10000];
+    private final boolean[] fused = new boolean[0x10000];
+    private final boolean[] fusedFirst = new boolean[256];
+    private int lastOpcode;
+    private boolean fusionEnabled = true;
+    
+    // Collects executed addresses and branch outcomes when set (null: no coverage)
+    private Coverage coverage;
+    
+    // Interrupt request bits for requestInterrupt
+    public static final int INT_IRQ = 0x1;
+    public static final int INT_FIRQ = 0x2;
+    public static final int INT_NMI = 0x4;
+    
+    // Requests waiting for an instruction boundary (and for their mask bit to clear)
+    private int pendingInterrupts;
+    
+    // Lines held asserted by devices (level triggered: taken for as long as they stay asserted)
+    private int interruptLines;
+    
+    // Idle loop detection: machine state at the last taken backward branch
+    // (A, B, X, Y, S, U, DP, CC) and the cost of one iteration once two arrivals matched
+    private int loopTarget = -1;
+    private final int[] loopRegisters = new int[8];
+    private long loopCycles;
+    private long loopInstructions;
+    private long loopWrites;
+    private long idleCycles;
+    private long idleInstructions;
+    
     public CPU(Memory memory) {
         this.memory = memory;
         reset();
@@ -50,10 +147,29 @@ public class CPU {
 
         regX = 0x0000; 
         regY = 0x0000;
-        regS = 0x0000; 
+        regS = 0x8000; // Top of RAM, so interrupts can push state without an LDS
         regU = 0x0000;
         
         halted = false;
+        pendingInterrupts = 0;
+        loopTarget = -1;
+        idleCycles = 0;
+        cycles = 0;
+        instructions = 0;
+        lastOpcode = -1;
+    }
+    
+    // Bits of the registers that changed since the last call, for incremental UI updates
+    public int takeChangedRegisters() {
+        int[] current = {regA, regB, regX, regY, regS, regU, regPC, regDP, regCC};
+        int changed = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != syncedRegisters[i]) {
+                changed |= 1 << i;
+                syncedRegisters[i] = current[i];
+            }
+        }
+        return changed;
     }
     
     // Get 16-bit D register (A:B combined)
@@ -136,37 +252,370 @@ public class CPU {
         return (high << 8) | low;
     }
     
+    // Push/pull on the system stack
+    private void pushByte(int value) {
+        regS = (regS - 1) & 0xFFFF;
+        memory.write(regS, value & 0xFF);
+    }
+    
+    private void pushWord(int value) {
+        pushByte(value);
+        pushByte(value >> 8);
+    }
+    
+    private int pullByte() {
+        int value = memory.read(regS);
+        regS = (regS + 1) & 0xFFFF;
+        return value;
+    }
+    
+    private int pullWord() {
+        int high = pullByte();
+        return (high << 8) | pullByte();
+    }
+    
+    // Raise an interrupt (INT_IRQ, INT_FIRQ or INT_NMI); it is taken before the next
+    // instruction once its mask bit in CC is clear
+    public void requestInterrupt(int type) {
+        pendingInterrupts |= type;
+    }
+    
+    public int getPendingInterrupts() {
+        return pendingInterrupts | interruptLines;
+    }
+    
+    // Requests latched by requestInterrupt and not yet taken (device lines excluded), for save states
+    public int getLatchedInterrupts() {
+        return pendingInterrupts;
+    }
+    
+    public void setLatchedInterrupts(int types) {
+        pendingInterrupts = types;
+    }
+    
+    // Assert or release a device's interrupt line (INT_IRQ, INT_FIRQ or INT_NMI)
+    public void setInterruptLine(int type, boolean asserted) {
+        if (asserted) {
+            interruptLines |= type;
+        } else {
+            interruptLines &= ~type;
+        }
+    }
+    
+    // True if serviceInterrupts would take a request now
+    private boolean interruptReady() {
+        int requests = pendingInterrupts | interruptLines;
+        return (requests & INT_NMI) != 0
+                || (requests & INT_FIRQ) != 0 && !isFlagSet(FLAG_F)
+                || (requests & INT_IRQ) != 0 && !isFlagSet(FLAG_I);
+    }
+    
+    // Take the highest priority unmasked request, returns its name or null if all are masked
+    private String serviceInterrupts() {
+        int requests = pendingInterrupts | interruptLines;
+        if ((requests & INT_NMI) != 0) {
+            pendingInterrupts &= ~INT_NMI;
+            return takeInterrupt("NMI", 0xFFFC, true, FLAG_I | FLAG_F, 19);
+        }
+        if ((requests & INT_FIRQ) != 0 && !isFlagSet(FLAG_F)) {
+            pendingInterrupts &= ~INT_FIRQ;
+            return takeInterrupt("FIRQ", 0xFFF6, false, FLAG_I | FLAG_F, 10);
+        }
+        if ((requests & INT_IRQ) != 0 && !isFlagSet(FLAG_I)) {
+            pendingInterrupts &= ~INT_IRQ;
+            return takeInterrupt("IRQ", 0xFFF8, true, FLAG_I, 19);
+        }
+        return null;
+    }
+    
+    // Stack the state (all registers, or PC and CC for FIRQ), mask and jump through the vector
+    private String takeInterrupt(String name, int vector, boolean entire, int mask, int cost) {
+        int from = regPC;
+        pushWord(regPC);
+        if (entire) {
+            setFlag(FLAG_E);
+            pushWord(regU);
+            pushWord(regY);
+            pushWord(regX);
+            pushByte(regDP);
+            pushByte(regB);
+            pushByte(regA);
+        } else {
+            clearFlag(FLAG_E);
+        }
+        pushByte(regCC);
+        setFlag(mask);
+        regPC = (memory.read(vector) << 8) | memory.read(vector + 1);
+        cycles += cost;
+        SimulatorEvents.interrupt(name, from, regPC, cycles);
+        return name;
+    }
+    
     // Execute one instruction and return its description
     public String step() {
         if (halted) {
             return "CPU HALTED";
         }
+        if ((pendingInterrupts | interruptLines) != 0) {
+            String taken = serviceInterrupts();
+            if (taken != null) {
+                return String.format("%s TAKEN -> $%04X", taken, regPC);
+            }
+        }
+        
+        if (coverage != null) {
+            coverage.executed(regPC);
+        }
+        int opcode = fetchByte();
+        cycles += CYCLES[opcode];
+        instructions++;
+        return executeInstruction(opcode, true);
+    }
+    
+    // Execute one dispatch without describing it, used when running.
+    // Hot opcode pairs with a fused handler run as a single dispatch.
+    public void execute() {
+        execute(true, Long.MAX_VALUE);
+    }
+    
+    // Without fusion every instruction starts its own dispatch (needed to stop at breakpoints)
+    public void execute(boolean allowFusion) {
+        execute(allowFusion, Long.MAX_VALUE);
+    }
+    
+    // Same, but a pair is only fused if its first instruction ends before limit (the next
+    // scheduled event or the end of the run), so whatever happens at limit sees the same
+    // boundary as unfused execution would
+    public void execute(long limit) {
+        execute(true, limit);
+    }
+    
+    private void execute(boolean allowFusion, long limit) {
+        if (halted) {
+            return;
+        }
+        if ((pendingInterrupts | interruptLines) != 0 && serviceInterrupts() != null) {
+            return;
+        }
         
+        int start = regPC;
         int opcode = fetchByte();
-        return executeInstruction(opcode);
+        if (coverage != null) {
+            coverage.executed(start);
+        }
+        if (allowFusion && fusedFirst[opcode] && cycles + CYCLES[opcode] < limit) {
+            int next = memory.read(regPC + Disassembler.sizeOf(opcode) - 1);
+            int pair = (opcode << 8) | next;
+            if (fused[pair]) {
+                executeFused(opcode, next);
+                lastOpcode = next;
+                if (coverage != null) {
+                    // The second instruction counts too; DEC ; BNE branched if the result was not zero
+                    int second = (start + Disassembler.sizeOf(opcode)) & 0xFFFF;
+                    coverage.executed(second);
+                    if (next == 0x26) {
+                        coverage.branch(second, !isFlagSet(FLAG_Z));
+                    }
+                }
+                return;
+            }
+        }
+        
+        // Profile pairs that have a fused handler
+        if (lastOpcode >= 0) {
+            int pair = (lastOpcode << 8) | opcode;
+            if (FUSIBLE[pair] && fusionEnabled && ++pairCounts[pair] == FUSION_THRESHOLD) {
+                fused[pair] = true;
+                fusedFirst[lastOpcode] = true;
+            }
+        }
+        lastOpcode = opcode;
+        
+        cycles += CYCLES[opcode];
+        instructions++;
+        executeInstruction(opcode, false);
     }
     
-    // Execute instruction based on opcode
-    private String executeInstruction(int opcode) {
+    // Called after a taken backward branch. Arriving at the same target twice with the same
+    // registers and no memory write in between means the loop can only repeat itself
+    // until something outside the CPU (an event, an interrupt) changes the machine.
+    private void noteBackwardBranch() {
+        long writes = memory.getWriteCount();
+        if (matchesLoopState(writes)) {
+            idleCycles = cycles - loopCycles;
+            idleInstructions = instructions - loopInstructions;
+        } else {
+            idleCycles = 0;
+            loopTarget = regPC;
+            loopRegisters[0] = regA;
+            loopRegisters[1] = regB;
+            loopRegisters[2] = regX;
+            loopRegisters[3] = regY;
+            loopRegisters[4] = regS;
+            loopRegisters[5] = regU;
+            loopRegisters[6] = regDP;
+            loopRegisters[7] = regCC;
+        }
+        loopCycles = cycles;
+        loopInstructions = instructions;
+        loopWrites = writes;
+    }
+    
+    private boolean matchesLoopState(long writes) {
+        return regPC == loopTarget && writes == loopWrites
+                && regA == loopRegisters[0] && regB == loopRegisters[1]
+                && regX == loopRegisters[2] && regY == loopRegisters[3]
+                && regS == loopRegisters[4] && regU == loopRegisters[5]
+                && regDP == loopRegisters[6] && regCC == loopRegisters[7];
+    }
+    
+    // At the head of a detected idle loop, jump over as many whole iterations as fit before
+    // the limit cycle and return the cycles skipped. Counters and registers end exactly
+    // where running those iterations would have left them.
+    public long skipIdleLoop(long limit) {
+        if (idleCycles == 0 || cycles != loopCycles || interruptReady()
+                || !matchesLoopState(memory.getWriteCount())) {
+            return 0;
+        }
+        long iterations = (limit - cycles) / idleCycles;
+        if (iterations <= 0) {
+            return 0;
+        }
+        cycles += iterations * idleCycles;
+        instructions += iterations * idleInstructions;
+        loopCycles = cycles;
+        loopInstructions = instructions;
+        return iterations * idleCycles;
+    }
+    
+    // Hash of the machine state: memory and devices (kept current by Memory and the devices
+    // on every write, see Memory.getStateHash) and the registers. Cycle and instruction counts are left out, so returning to an earlier
+    // state gives the same hash. Equal hashes mean equal states with 64-bit certainty.
+    public long getStateHash() {
+        return memory.getStateHash() ^ registerHash(regA, regB, regX, regY, regS, regU, regPC, regDP, regCC, halted);
+    }
+    
+    static long registerHash(int a, int b, int x, int y, int s, int u, int pc, int dp, int cc, boolean halted) {
+        long accumulators = (long) a << 56 | (long) b << 48 | (long) dp << 40 | (long) cc << 32 | (long) x << 16 | y;
+        long pointers = (long) s << 32 | (long) u << 16 | pc | (halted ? 1L << 48 : 0);
+        return Memory.mix(accumulators) ^ Long.rotateLeft(Memory.mix(~pointers), 17);
+    }
+    
+    // Start or stop (null) collecting coverage
+    public void setCoverage(Coverage coverage) {
+        this.coverage = coverage;
+    }
+    
+    public Coverage getCoverage() {
+        return coverage;
+    }
+    
+    // Turn superinstructions on or off (off drops everything learned so far)
+    public void setFusionEnabled(boolean enabled) {
+        fusionEnabled = enabled;
+        if (!enabled) {
+            Arrays.fill(pairCounts, 0);
+            Arrays.fill(fused, false);
+            Arrays.fill(fusedFirst, false);
+        }
+    }
+    
+    // Number of opcode pairs currently running fused
+    public int getFusedPairCount() {
+        int count = 0;
+        for (boolean f : fused) {
+            if (f) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // Run a fused pair; first's opcode byte is already fetched.
+    // Flags, memory accesses and cycles are exactly those of the two instructions run in sequence.
+    private void executeFused(int first, int second) {
+        cycles += CYCLES[first] + CYCLES[second];
+        instructions += 2;
+        
+        switch (first) {
+            // DECA/DECB ; BNE
+            case 0x4A:
+            case 0x5A: {
+                int value;
+                if (first == 0x4A) {
+                    regA = (regA - 1) & 0xFF;
+                    value = regA;
+                } else {
+                    regB = (regB - 1) & 0xFF;
+                    value = regB;
+                }
+                updateNZ(value);
+                regPC = (regPC + 1) & 0xFFFF; // BNE opcode
+                int offset = fetchByte();
+                if (value != 0) {
+                    if ((offset & 0x80) != 0) {
+                        offset |= 0xFF00;
+                    }
+                    regPC = (regPC + offset) & 0xFFFF;
+                }
+                return;
+            }
+            
+            // LDX # ; LDA
+            case 0x8E: {
+                regX = fetchWord();
+                updateNZ16(regX);
+                regPC = (regPC + 1) & 0xFFFF; // LDA opcode
+                regA = readOperand(second) & 0xFF;
+                updateNZ(regA);
+                return;
+            }
+            
+            // LDA ; STA
+            default: {
+                regA = readOperand(first) & 0xFF;
+                updateNZ(regA);
+                regPC = (regPC + 1) & 0xFFFF; // STA opcode
+                int addr = second == 0x97 ? fetchByte() : fetchWord();
+                memory.write(addr, regA);
+                return;
+            }
+        }
+    }
+    
+    // Operand of an 8-bit load by its addressing mode (immediate, direct or extended opcode)
+    private int readOperand(int opcode) {
+        switch (opcode & 0xF0) {
+            case 0x80:
+                return fetchByte();
+            case 0x90:
+                return memory.read(fetchByte());
+            default:
+                return memory.read(fetchWord());
+        }
+    }
+    
+    // Execute instruction based on opcode (the description is only built when asked for)
+    private String executeInstruction(int opcode, boolean describe) {
         switch (opcode) {
             // LDA - Load Accumulator A
             case 0x86: { // Immediate
                 int value = fetchByte();
                 regA = value & 0xFF;
                 updateNZ(regA);
-                return String.format("LDA #$%02X", value);
+                return describe ? String.format("LDA #$%02X", value) : null;
             }
             case 0x96: { // Direct
                 int addr = fetchByte();
                 regA = memory.read(addr) & 0xFF;
                 updateNZ(regA);
-                return String.format("LDA $%02X", addr);
+                return describe ? String.format("LDA $%02X", addr) : null;
             }
             case 0xB6: { // Extended
                 int addr = fetchWord();
                 regA = memory.read(addr) & 0xFF;
                 updateNZ(regA);
-                return String.format("LDA $%04X", addr);
+                return describe ? String.format("LDA $%04X", addr) : null;
             }
             
             // LDB - Load Accumulator B
@@ -174,26 +623,26 @@ public class CPU {
                 int value = fetchByte();
                 regB = value & 0xFF;
                 updateNZ(regB);
-                return String.format("LDB #$%02X", value);
+                return describe ? String.format("LDB #$%02X", value) : null;
             }
             case 0xD6: { // Direct
                 int addr = fetchByte();
                 regB = memory.read(addr) & 0xFF;
                 updateNZ(regB);
-                return String.format("LDB $%02X", addr);
+                return describe ? String.format("LDB $%02X", addr) : null;
             }
             case 0xF6: { // Extended
                 int addr = fetchWord();
                 regB = memory.read(addr) & 0xFF;
                 updateNZ(regB);
-                return String.format("LDB $%04X", addr);
+                return describe ? String.format("LDB $%04X", addr) : null;
             }
             
             // LDX - Load Index Register X
             case 0x8E: { // Immediate
                 regX = fetchWord();
                 updateNZ16(regX);
-                return String.format("LDX #$%04X", regX);
+                return describe ? String.format("LDX #$%04X", regX) : null;
             }
             case 0x9E: { // Direct
                 int addr = fetchByte();
@@ -201,7 +650,7 @@ public class CPU {
                 int low = memory.read(addr + 1);
                 regX = ((high << 8) | low) & 0xFFFF;
                 updateNZ16(regX);
-                return String.format("LDX $%02X", addr);
+                return describe ? String.format("LDX $%02X", addr) : null;
             }
             case 0xBE: { // Extended
                 int addr = fetchWord();
@@ -209,31 +658,31 @@ public class CPU {
                 int low = memory.read(addr + 1);
                 regX = ((high << 8) | low) & 0xFFFF;
                 updateNZ16(regX);
-                return String.format("LDX $%04X", addr);
+                return describe ? String.format("LDX $%04X", addr) : null;
             }
             
             // STA - Store Accumulator A
             case 0x97: { // Direct
                 int addr = fetchByte();
                 memory.write(addr, regA);
-                return String.format("STA $%02X", addr);
+                return describe ? String.format("STA $%02X", addr) : null;
             }
             case 0xB7: { // Extended
                 int addr = fetchWord();
                 memory.write(addr, regA);
-                return String.format("STA $%04X", addr);
+                return describe ? String.format("STA $%04X", addr) : null;
             }
             
             // STB - Store Accumulator B
             case 0xD7: { // Direct
                 int addr = fetchByte();
                 memory.write(addr, regB);
-                return String.format("STB $%02X", addr);
+                return describe ? String.format("STB $%02X", addr) : null;
             }
             case 0xF7: { // Extended
                 int addr = fetchWord();
                 memory.write(addr, regB);
-                return String.format("STB $%04X", addr);
+                return describe ? String.format("STB $%04X", addr) : null;
             }
             
             // STX - Store Index Register X
@@ -241,13 +690,13 @@ public class CPU {
                 int addr = fetchByte();
                 memory.write(addr, (regX >> 8) & 0xFF);
                 memory.write(addr + 1, regX & 0xFF);
-                return String.format("STX $%02X", addr);
+                return describe ? String.format("STX $%02X", addr) : null;
             }
             case 0xBF: { // Extended
                 int addr = fetchWord();
                 memory.write(addr, (regX >> 8) & 0xFF);
                 memory.write(addr + 1, regX & 0xFF);
-                return String.format("STX $%04X", addr);
+                return describe ? String.format("STX $%04X", addr) : null;
             }
             
             // ADDA - Add to A
@@ -257,7 +706,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("ADDA #$%02X", value);
+                return describe ? String.format("ADDA #$%02X", value) : null;
             }
             case 0x9B: { // Direct
                 int addr = fetchByte();
@@ -266,7 +715,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("ADDA $%02X", addr);
+                return describe ? String.format("ADDA $%02X", addr) : null;
             }
             case 0xBB: { // Extended
                 int addr = fetchWord();
@@ -275,7 +724,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("ADDA $%04X", addr);
+                return describe ? String.format("ADDA $%04X", addr) : null;
             }
             
             // ADDB - Add to B
@@ -285,7 +734,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("ADDB #$%02X", value);
+                return describe ? String.format("ADDB #$%02X", value) : null;
             }
             case 0xDB: { // Direct
                 int addr = fetchByte();
@@ -294,7 +743,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("ADDB $%02X", addr);
+                return describe ? String.format("ADDB $%02X", addr) : null;
             }
             case 0xFB: { // Extended
                 int addr = fetchWord();
@@ -303,7 +752,7 @@ public class CPU {
                 updateNZ(result);
                 if (result > 0xFF) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("ADDB $%04X", addr);
+                return describe ? String.format("ADDB $%04X", addr) : null;
             }
             
             // SUBA - Subtract from A
@@ -313,7 +762,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("SUBA #$%02X", value);
+                return describe ? String.format("SUBA #$%02X", value) : null;
             }
             case 0x90: { // Direct
                 int addr = fetchByte();
@@ -322,7 +771,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("SUBA $%02X", addr);
+                return describe ? String.format("SUBA $%02X", addr) : null;
             }
             case 0xB0: { // Extended
                 int addr = fetchWord();
@@ -331,7 +780,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regA = result & 0xFF;
-                return String.format("SUBA $%04X", addr);
+                return describe ? String.format("SUBA $%04X", addr) : null;
             }
             
             // SUBB - Subtract from B
@@ -341,7 +790,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("SUBB #$%02X", value);
+                return describe ? String.format("SUBB #$%02X", value) : null;
             }
             case 0xD0: { // Direct
                 int addr = fetchByte();
@@ -350,7 +799,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("SUBB $%02X", addr);
+                return describe ? String.format("SUBB $%02X", addr) : null;
             }
             case 0xF0: { // Extended
                 int addr = fetchWord();
@@ -359,7 +808,7 @@ public class CPU {
                 updateNZ(result);
                 if (result < 0) setFlag(FLAG_C); else clearFlag(FLAG_C);
                 regB = result & 0xFF;
-                return String.format("SUBB $%04X", addr);
+                return describe ? String.format("SUBB $%04X", addr) : null;
             }
             
             // INCA - Increment A
@@ -398,18 +847,27 @@ public class CPU {
                     offset |= 0xFF00;
                 }
                 regPC = (regPC + offset) & 0xFFFF;
-                return String.format("BRA $%04X", regPC);
+                if ((offset & 0x8000) != 0) {
+                    noteBackwardBranch();
+                }
+                return describe ? String.format("BRA $%04X", regPC) : null;
             }
             
             // BEQ - Branch if Equal (Z=1)
             case 0x27: {
                 int offset = fetchByte();
+                if (coverage != null) {
+                    coverage.branch(regPC - 2, isFlagSet(FLAG_Z));
+                }
                 if (isFlagSet(FLAG_Z)) {
                     if ((offset & 0x80) != 0) {
                         offset |= 0xFF00;
                     }
                     regPC = (regPC + offset) & 0xFFFF;
-                    return String.format("BEQ $%04X (taken)", regPC);
+                    if ((offset & 0x8000) != 0) {
+                        noteBackwardBranch();
+                    }
+                    return describe ? String.format("BEQ $%04X (taken)", regPC) : null;
                 }
                 return "BEQ (not taken)";
             }
@@ -417,12 +875,18 @@ public class CPU {
             // BNE - Branch if Not Equal (Z=0)
             case 0x26: {
                 int offset = fetchByte();
+                if (coverage != null) {
+                    coverage.branch(regPC - 2, !isFlagSet(FLAG_Z));
+                }
                 if (!isFlagSet(FLAG_Z)) {
                     if ((offset & 0x80) != 0) {
                         offset |= 0xFF00;
                     }
                     regPC = (regPC + offset) & 0xFFFF;
-                    return String.format("BNE $%04X (taken)", regPC);
+                    if ((offset & 0x8000) != 0) {
+                        noteBackwardBranch();
+                    }
+                    return describe ? String.format("BNE $%04X (taken)", regPC) : null;
                 }
                 return "BNE (not taken)";
             }
@@ -432,6 +896,36 @@ public class CPU {
                 return "NOP";
             }
             
+            // ANDCC - AND mask into CC (clears interrupt masks)
+            case 0x1C: {
+                int value = fetchByte();
+                regCC &= value;
+                return describe ? String.format("ANDCC #$%02X", value) : null;
+            }
+            
+            // ORCC - OR mask into CC (sets interrupt masks)
+            case 0x1A: {
+                int value = fetchByte();
+                regCC |= value;
+                return describe ? String.format("ORCC #$%02X", value) : null;
+            }
+            
+            // RTI - Return from interrupt, pulling what the interrupt stacked
+            case 0x3B: {
+                regCC = pullByte();
+                if (isFlagSet(FLAG_E)) {
+                    regA = pullByte();
+                    regB = pullByte();
+                    regDP = pullByte();
+                    regX = pullWord();
+                    regY = pullWord();
+                    regU = pullWord();
+                    cycles += 9;
+                }
+                regPC = pullWord();
+                return "RTI";
+            }
+            
             // END marker (halt)
             case 0x00: {
                 halted = true;
@@ -440,7 +934,7 @@ public class CPU {
             
             default:
                 halted = true;
-                return String.format("INVALID OPCODE: $%02X", opcode);
+                return describe ? String.format("INVALID OPCODE: $%02X", opcode) : null;
         }
     }
 }
\ No newline at end of file
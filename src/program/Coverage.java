@@ -0,0 +1,239 @@
+package program;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Code coverage by address: one bit per address where an instruction started, plus one
+// bit each for conditional branches seen taken and seen not taken. The CPU sets the bits
+// as it runs (see CPU.setCoverage); reports map them back to source lines through the
+// image's line table. Runs of the same program combine by OR (merge, or read and merge
+// the files written by write), so parallel runs cost nothing to add up.
+public class Coverage {
+    private static final int MAGIC = 0x434F5631; // "COV1"
+    private static final int WORDS = 0x10000 / 64;
+
+    private final long[] executed = new long[WORDS];
+    private final long[] taken = new long[WORDS];
+    private final long[] notTaken = new long[WORDS];
+
+    // Line and branch totals of one source file
+    private static class FileCoverage {
+        final TreeMap<Integer, Boolean> lines = new TreeMap<>();    // Line -> executed
+        final Map<Integer, List<int[]>> branches = new TreeMap<>(); // Line -> {taken, not taken} per branch
+        int linesHit;
+        int branchesFound;
+        int branchesHit;
+    }
+
+    public void executed(int address) {
+        executed[(address & 0xFFFF) >> 6] |= 1L << address;
+    }
+
+    // A conditional branch at address went the given way
+    public void branch(int address, boolean wasTaken) {
+        long[] bits = wasTaken ? taken : notTaken;
+        bits[(address & 0xFFFF) >> 6] |= 1L << address;
+    }
+
+    public boolean isExecuted(int address) {
+        return isSet(executed, address);
+    }
+
+    public boolean isTaken(int address) {
+        return isSet(taken, address);
+    }
+
+    public boolean isNotTaken(int address) {
+        return isSet(notTaken, address);
+    }
+
+    private static boolean isSet(long[] bits, int address) {
+        return (bits[(address & 0xFFFF) >> 6] & 1L << address) != 0;
+    }
+
+    // Add another run's coverage to this one
+    public void merge(Coverage other) {
+        for (int i = 0; i < WORDS; i++) {
+            executed[i] |= other.executed[i];
+            taken[i] |= other.taken[i];
+            notTaken[i] |= other.notTaken[i];
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < WORDS; i++) {
+            executed[i] = 0;
+            taken[i] = 0;
+            notTaken[i] = 0;
+        }
+    }
+
+    // Raw bitsets, for merging runs from other processes
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 3 * WORDS * 8);
+        buffer.putInt(MAGIC);
+        buffer.asLongBuffer().put(executed).put(taken).put(notTaken);
+        buffer.rewind();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static Coverage read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 3 * WORDS * 8);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() != buffer.capacity() || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a 6809 coverage file: " + path.getFileName());
+        }
+        Coverage coverage = new Coverage();
+        buffer.asLongBuffer().get(coverage.executed).get(coverage.taken).get(coverage.notTaken);
+        return coverage;
+    }
+
+    // Per-file line and branch results for the program in image
+    private Map<String, FileCoverage> collect(LinkedImage image) {
+        int[] opcodes = new int[0x10000];
+        for (LinkedImage.Segment segment : image.getSegments()) {
+            for (int i = 0; i < segment.data.length; i++) {
+                opcodes[(segment.address + i) & 0xFFFF] = segment.data[i] & 0xFF;
+            }
+        }
+
+        Map<String, FileCoverage> files = new TreeMap<>();
+        for (Map.Entry<Integer, LinkedImage.SourceLocation> entry : image.getLines().entrySet()) {
+            int address = entry.getKey();
+            LinkedImage.SourceLocation location = entry.getValue();
+            FileCoverage file = files.computeIfAbsent(location.file, name -> new FileCoverage());
+            file.lines.merge(location.line, isExecuted(address), Boolean::logicalOr);
+            int opcode = opcodes[address];
+            if (opcode == 0x26 || opcode == 0x27) {
+                file.branches.computeIfAbsent(location.line, line -> new ArrayList<>())
+                        .add(new int[] { isTaken(address) ? 1 : 0, isNotTaken(address) ? 1 : 0 });
+            }
+        }
+        for (FileCoverage file : files.values()) {
+            for (boolean hit : file.lines.values()) {
+                file.linesHit += hit ? 1 : 0;
+            }
+            for (List<int[]> branches : file.branches.values()) {
+                for (int[] branch : branches) {
+                    file.branchesFound += 2;
+                    file.branchesHit += branch[0] + branch[1];
+                }
+            }
+        }
+        return files;
+    }
+
+    // LCOV tracefile (SF/DA/BRDA records), readable by genhtml and most CI tools
+    public void writeLcov(Path path, LinkedImage image) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeLcov(out, image);
+        }
+    }
+
+    // Same, to out (left open)
+    public void writeLcov(Writer out, LinkedImage image) throws IOException {
+        for (Map.Entry<String, FileCoverage> entry : collect(image).entrySet()) {
+            FileCoverage file = entry.getValue();
+            out.write("TN:\nSF:" + entry.getKey() + "\n");
+            for (Map.Entry<Integer, List<int[]>> line : file.branches.entrySet()) {
+                boolean reached = file.lines.get(line.getKey());
+                List<int[]> branches = line.getValue();
+                for (int i = 0; i < branches.size(); i++) {
+                    for (int way = 0; way < 2; way++) {
+                        out.write("BRDA:" + line.getKey() + "," + i + "," + way + ","
+                                + (reached ? String.valueOf(branches.get(i)[way]) : "-") + "\n");
+                    }
+                }
+            }
+            out.write("BRF:" + file.branchesFound + "\nBRH:" + file.branchesHit + "\n");
+            for (Map.Entry<Integer, Boolean> line : file.lines.entrySet()) {
+                out.write("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0) + "\n");
+            }
+            out.write("LF:" + file.lines.size() + "\nLH:" + file.linesHit + "\nend_of_record\n");
+        }
+    }
+
+    // HTML report: a summary per file, then each file's source with executed lines in green,
+    // missed lines in red and branches that only went one way in yellow.
+    // sources maps file names (the module name for a main source) to their text; files
+    // without text are listed by line number only.
+    public void writeHtml(Path path, LinkedImage image, Map<String, String> sources) throws IOException {
+        Map<String, FileCoverage> files = collect(image);
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>6809 coverage</title><style>\n"
+                    + "body{font-family:sans-serif} table{border-collapse:collapse} td,th{padding:0 8px}\n"
+                    + "pre{margin:0} .hit{background:#c8f0c8} .miss{background:#f4c0c0} .partial{background:#f4eca0}\n"
+                    + "</style></head><body>\n<h1>Coverage</h1>\n<table border=\"1\">\n"
+                    + "<tr><th>File</th><th>Lines</th><th>Branches</th></tr>\n");
+            for (Map.Entry<String, FileCoverage> entry : files.entrySet()) {
+                FileCoverage file = entry.getValue();
+                out.write("<tr><td><a href=\"#" + escape(entry.getKey()) + "\">" + escape(entry.getKey()) + "</a></td><td>"
+                        + ratio(file.linesHit, file.lines.size()) + "</td><td>"
+                        + ratio(file.branchesHit, file.branchesFound) + "</td></tr>\n");
+            }
+            out.write("</table>\n");
+
+            for (Map.Entry<String, FileCoverage> entry : files.entrySet()) {
+                FileCoverage file = entry.getValue();
+                out.write("<h2 id=\"" + escape(entry.getKey()) + "\">" + escape(entry.getKey()) + "</h2>\n<table>\n");
+                String text = sources.get(entry.getKey());
+                String[] lines = text != null ? text.split("\r?\n", -1) : new String[0];
+                int count = text != null ? lines.length : file.lines.isEmpty() ? 0 : file.lines.lastKey();
+                for (int number = 1; number <= count; number++) {
+                    Boolean hit = file.lines.get(number);
+                    String style = "";
+                    String branches = "";
+                    if (hit != null) {
+                        style = hit ? "hit" : "miss";
+                        List<int[]> lineBranches = file.branches.get(number);
+                        if (lineBranches != null) {
+                            StringBuilder ways = new StringBuilder();
+                            for (int[] branch : lineBranches) {
+                                ways.append(branch[0] == 1 ? 'T' : '-').append(branch[1] == 1 ? 'F' : '-').append(' ');
+                                if (hit && branch[0] + branch[1] < 2) {
+                                    style = "partial";
+                                }
+                            }
+                            branches = ways.toString().trim();
+                        }
+                    } else if (text == null) {
+                        continue;
+                    }
+                    String source = number <= lines.length ? lines[number - 1] : "";
+                    out.write("<tr class=\"" + style + "\"><td>" + number + "</td><td>" + branches
+                            + "</td><td><pre>" + escape(source) + "</pre></td></tr>\n");
+                }
+                out.write("</table>\n");
+            }
+            out.write("</body></html>\n");
+        }
+    }
+
+    private static String ratio(int hit, int total) {
+        return total == 0 ? "-" : String.format("%d/%d (%.1f%%)", hit, total, 100.0 * hit / total);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
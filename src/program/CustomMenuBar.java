@@ -4,14 +4,24 @@ import java.awt.*;
 import javax.swing.*;
 
 public class CustomMenuBar extends JMenuBar {
+    // File actions are connected by Main
+    public JMenuItem itemLoad, itemSave;
+    // Interrupt and breakpoint actions are connected by Main
+    public JMenuItem itemIrq, itemFirq, itemNmi, itemBreakpoint;
+    // Start/stop recording inputs and collecting coverage, connected by Main
+    public JMenuItem itemRecord, itemCoverage;
+    public JMenuItem itemDisplay;
+
     public CustomMenuBar() {
         setBackground(new Color(45, 45, 45));
         setBorder(BorderFactory.createLineBorder(new Color(60, 60, 60)));
 
         // File Menu
         JMenu fileMenu = createMenu("File");
-        fileMenu.add(new JMenuItem("Load"));
-        fileMenu.add(new JMenuItem("Save"));
+        itemLoad = new JMenuItem("Load");
+        itemSave = new JMenuItem("Save");
+        fileMenu.add(itemLoad);
+        fileMenu.add(itemSave);
 
         // Simulation Menu
         JMenu simMenu = createMenu("Simulation");
@@ -22,9 +32,21 @@ public class CustomMenuBar extends JMenuBar {
         // Options Menu
         JMenu optMenu = createMenu("Options");
         optMenu.add(new JMenuItem("Reset"));
-        optMenu.add(new JMenuItem("IRQ"));
-        optMenu.add(new JMenuItem("FIRQ"));
-        optMenu.add(new JMenuItem("NMI"));
+        itemIrq = new JMenuItem("IRQ");
+        itemFirq = new JMenuItem("FIRQ");
+        itemNmi = new JMenuItem("NMI");
+        itemBreakpoint = new JMenuItem("Toggle Breakpoint...");
+        optMenu.add(itemIrq);
+        optMenu.add(itemFirq);
+        optMenu.add(itemNmi);
+        optMenu.addSeparator();
+        optMenu.add(itemBreakpoint);
+        itemRecord = new JMenuItem("Start Recording");
+        optMenu.add(itemRecord);
+        itemCoverage = new JMenuItem("Start Coverage");
+        optMenu.add(itemCoverage);
+        itemDisplay = new JMenuItem("Display");
+        optMenu.add(itemDisplay);
 
         add(fileMenu);
         add(simMenu);
@@ -0,0 +1,478 @@
+package program;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Local remote-debug server in the style of GDB's remote serial protocol.
+// Packets are $data#checksum and are acknowledged with + (or - to resend).
+// Supported: ? g G m M s c Z0 z0 k qSupported, and Ctrl-C (0x03) to interrupt a continue.
+// Registers for g/G, in hex: CC A B DP (1 byte each) X Y U S PC (2 bytes each, big endian).
+// A single m or M packet can move up to 64 KB, so a tool can pull the whole address space
+// in one round trip. Everything runs on one selector thread; continue runs on the
+// simulator's background runner and its stop reply is posted back to that thread.
+public class DebugServer implements Runnable {
+    private static final int MAX_PACKET = 0x20010;              // Fits "M0,10000:" + 64 KB in hex
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Simulator simulator;
+    private final int port;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Posted by runner threads
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean stopRequested;
+    private int boundPort;
+    private Connection continuing; // Connection waiting for a stop reply
+    private SimulationRunner runner; // Last background run started here
+
+    private static class Connection {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        final Deque<ByteBuffer> out = new ArrayDeque<>();
+        boolean closing;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // Port 0 picks a free port (see getPort)
+    public DebugServer(Simulator simulator, int port) {
+        this.simulator = simulator;
+        this.port = port;
+    }
+
+    // Bind to the loopback interface and serve on a daemon thread
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        boundPort = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+        thread = new Thread(this, "debug-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return boundPort;
+    }
+
+    // Close the server and all connections, and wait for the thread
+    public void stop() {
+        stopRequested = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopRequested) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Selector failed, nothing left to serve
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void close(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment == continuing) {
+            continuing = null;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        if (!conn.in.hasRemaining()) {
+            if (conn.in.capacity() >= MAX_PACKET + 16) {
+                throw new IOException("Packet too large");
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(conn.in.capacity() * 4, MAX_PACKET + 16));
+            conn.in.flip();
+            bigger.put(conn.in);
+            conn.in = bigger;
+        }
+        if (conn.channel.read(conn.in) < 0) {
+            close(key);
+            return;
+        }
+        conn.in.flip();
+        parse(key, conn);
+        conn.in.compact();
+    }
+
+    // Handle every complete packet in the input buffer, leaving a partial one for later
+    private void parse(SelectionKey key, Connection conn) {
+        ByteBuffer in = conn.in;
+        while (in.hasRemaining()) {
+            int start = in.position();
+            byte b = in.get(start);
+            if (b == '$') {
+                int hash = -1;
+                for (int i = start + 1; i < in.limit(); i++) {
+                    if (in.get(i) == '#') {
+                        hash = i;
+                        break;
+                    }
+                }
+                if (hash < 0 || hash + 2 >= in.limit()) {
+                    return; // Incomplete
+                }
+                byte[] bytes = new byte[hash - start - 1];
+                in.position(start + 1);
+                in.get(bytes);
+                int checksum = Character.digit(in.get(hash + 1), 16) << 4 | Character.digit(in.get(hash + 2), 16);
+                in.position(hash + 3);
+
+                int sum = 0;
+                for (byte c : bytes) {
+                    sum += c & 0xFF;
+                }
+                if ((sum & 0xFF) != checksum) {
+                    send(key, conn, "-");
+                    continue;
+                }
+                send(key, conn, "+");
+                String reply;
+                try {
+                    reply = handle(conn, new String(bytes, StandardCharsets.ISO_8859_1));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    reply = "E03";
+                }
+                if (reply != null) {
+                    sendPacket(key, conn, reply);
+                }
+            } else {
+                in.position(start + 1);
+                if (b == 0x03) {
+                    interrupt();
+                }
+                // Acks and anything else between packets are ignored
+            }
+        }
+    }
+
+    // Reply to one packet, or null if the reply comes later (continue) or never (kill)
+    private String handle(Connection conn, String data) {
+        if (data.isEmpty()) {
+            return "";
+        }
+        switch (data.charAt(0)) {
+            case '?':
+                return stopReply();
+            case 'g':
+                return readRegisters();
+            case 'G':
+                return writeRegisters(data.substring(1));
+            case 'm':
+                return readMemory(data.substring(1));
+            case 'M':
+                return writeMemory(data.substring(1));
+            case 's':
+                return step(data.substring(1));
+            case 'c':
+                return resume(conn, data.substring(1));
+            case 'Z':
+            case 'z':
+                return breakpoint(data.charAt(0) == 'Z', data.substring(1));
+            case 'k':
+                simulator.stop();
+                conn.closing = true;
+                return null;
+            case 'q':
+                return data.startsWith("qSupported") ? "PacketSize=" + Integer.toHexString(MAX_PACKET) : "";
+            default:
+                return ""; // Not supported
+        }
+    }
+
+    private boolean isStopped() {
+        return !simulator.isRunning() || simulator.isPaused();
+    }
+
+    private String stopReply() {
+        return simulator.getCPU().halted ? "W00" : "S05";
+    }
+
+    private String readRegisters() {
+        StringBuilder text = new StringBuilder(28);
+        synchronized (simulator) {
+            CPU cpu = simulator.getCPU();
+            appendHex(text, cpu.regCC, 1);
+            appendHex(text, cpu.regA, 1);
+            appendHex(text, cpu.regB, 1);
+            appendHex(text, cpu.regDP, 1);
+            appendHex(text, cpu.regX, 2);
+            appendHex(text, cpu.regY, 2);
+            appendHex(text, cpu.regU, 2);
+            appendHex(text, cpu.regS, 2);
+            appendHex(text, cpu.regPC, 2);
+        }
+        return text.toString();
+    }
+
+    private String writeRegisters(String hex) {
+        if (hex.length() != 28) {
+            return "E01";
+        }
+        synchronized (simulator) {
+            CPU cpu = simulator.getCPU();
+            cpu.regCC = Integer.parseInt(hex.substring(0, 2), 16);
+            cpu.regA = Integer.parseInt(hex.substring(2, 4), 16);
+            cpu.regB = Integer.parseInt(hex.substring(4, 6), 16);
+            cpu.regDP = Integer.parseInt(hex.substring(6, 8), 16);
+            cpu.regX = Integer.parseInt(hex.substring(8, 12), 16);
+            cpu.regY = Integer.parseInt(hex.substring(12, 16), 16);
+            cpu.regU = Integer.parseInt(hex.substring(16, 20), 16);
+            cpu.regS = Integer.parseInt(hex.substring(20, 24), 16);
+            cpu.regPC = Integer.parseInt(hex.substring(24, 28), 16);
+        }
+        return "OK";
+    }
+
+    // m addr,length: one dump of up to 64 KB, clipped at the top of memory
+    private String readMemory(String args) {
+        int comma = args.indexOf(',');
+        int address = Integer.parseInt(args.substring(0, comma), 16);
+        int length = Integer.parseInt(args.substring(comma + 1), 16);
+        if (address > 0xFFFF || length > 0x10000) {
+            return "E01";
+        }
+        length = Math.min(length, 0x10000 - address);
+        byte[] data;
+        synchronized (simulator) {
+            data = simulator.getMemory().dump(address, length);
+        }
+        char[] text = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            text[2 * i] = HEX[(data[i] >> 4) & 0xF];
+            text[2 * i + 1] = HEX[data[i] & 0xF];
+        }
+        return new String(text);
+    }
+
+    // M addr,length:hex, written in one bulk load (ROM included, as a loader would)
+    private String writeMemory(String args) {
+        int comma = args.indexOf(',');
+        int colon = args.indexOf(':');
+        int address = Integer.parseInt(args.substring(0, comma), 16);
+        int length = Integer.parseInt(args.substring(comma + 1, colon), 16);
+        String hex = args.substring(colon + 1);
+        if (address > 0xFFFF || address + length > 0x10000 || hex.length() != length * 2) {
+            return "E01";
+        }
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4 | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        synchronized (simulator) {
+            Memory memory = simulator.getMemory();
+            memory.load(address, data);
+            // load leaves device registers alone; a debugger writing one means it
+            for (int i = 0; i < length; i++) {
+                if (memory.getDevice(address + i) != null) {
+                    memory.write(address + i, data[i] & 0xFF);
+                }
+            }
+        }
+        return "OK";
+    }
+
+    // s [addr]
+    private String step(String args) {
+        if (!isStopped()) {
+            return "E01";
+        }
+        synchronized (simulator) {
+            if (!args.isEmpty()) {
+                simulator.getCPU().regPC = Integer.parseInt(args, 16) & 0xFFFF;
+            }
+            simulator.step();
+        }
+        return stopReply();
+    }
+
+    // c [addr]: run in the background, the stop reply is sent when it breaks or halts
+    private String resume(Connection conn, String args) {
+        if (!isStopped()) {
+            return "E01";
+        }
+        synchronized (simulator) {
+            if (!args.isEmpty()) {
+                simulator.getCPU().regPC = Integer.parseInt(args, 16) & 0xFFFF;
+            }
+            if (simulator.getCPU().halted) {
+                return "W00";
+            }
+        }
+        if (simulator.isRunning() && simulator.getRunner() == runner) {
+            continuing = conn;
+            simulator.resume();
+            return null;
+        }
+        if (simulator.isRunning()) {
+            // Paused run started elsewhere (the GUI): its callbacks would never send the
+            // stop reply, so replace it. Step over the breakpoint it stopped at, as it would.
+            simulator.stop();
+            synchronized (simulator) {
+                CPU cpu = simulator.getCPU();
+                if (simulator.hasBreakpoints() && simulator.getBreakpoints()[cpu.regPC]) {
+                    simulator.step();
+                }
+                if (cpu.halted) {
+                    return "W00";
+                }
+            }
+        }
+        continuing = conn;
+        simulator.start(() -> post(() -> stopped("S05")), () -> post(() -> stopped(stopReply())));
+        runner = simulator.getRunner();
+        return null;
+    }
+
+    // Ctrl-C while continuing
+    private void interrupt() {
+        if (continuing != null) {
+            simulator.pause();
+            stopped("S02");
+        }
+    }
+
+    private void stopped(String reply) {
+        Connection conn = continuing;
+        continuing = null;
+        if (conn != null && conn.channel.isOpen()) {
+            sendPacket(conn.channel.keyFor(selector), conn, reply);
+        }
+    }
+
+    // Z0,addr,kind / z0,addr,kind (hardware breakpoints, type 1, are treated the same)
+    private String breakpoint(boolean set, String args) {
+        String[] parts = args.split(",");
+        if (parts.length < 2 || !(parts[0].equals("0") || parts[0].equals("1"))) {
+            return "";
+        }
+        simulator.setBreakpoint(Integer.parseInt(parts[1], 16), set);
+        return "OK";
+    }
+
+    // Run a task on the selector thread
+    private void post(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void sendPacket(SelectionKey key, Connection conn, String data) {
+        int sum = 0;
+        for (int i = 0; i < data.length(); i++) {
+            sum += data.charAt(i);
+        }
+        StringBuilder packet = new StringBuilder(data.length() + 4);
+        packet.append('$').append(data).append('#');
+        appendHex(packet, sum & 0xFF, 1);
+        send(key, conn, packet.toString());
+    }
+
+    private void send(SelectionKey key, Connection conn, String text) {
+        conn.out.add(ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        while (!conn.out.isEmpty()) {
+            ByteBuffer head = conn.out.peek();
+            conn.channel.write(head);
+            if (head.hasRemaining()) {
+                return; // Socket buffer full, wait for the next OP_WRITE
+            }
+            conn.out.poll();
+        }
+        if (conn.closing) {
+            close(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private static void appendHex(StringBuilder text, int value, int bytes) {
+        for (int shift = bytes * 8 - 4; shift >= 0; shift -= 4) {
+            text.append(HEX[(value >> shift) & 0xF]);
+        }
+    }
+}
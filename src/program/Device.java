@@ -0,0 +1,33 @@
+package program;
+
+// A memory-mapped peripheral. Memory hands every access to the device's pages to it.
+public interface Device {
+
+    // Value seen by the CPU (may have side effects, like clearing a status flag)
+    int read(int address);
+
+    void write(int address, int value);
+
+    // Value without side effects, for memory views, dumps and the disassembler
+    default int peek(int address) {
+        return read(address);
+    }
+
+    // Back to power-on state (Memory.reset)
+    default void reset() {
+    }
+
+    // Internal state for save states (latched registers, buffers), empty if reads show everything
+    default byte[] saveState() {
+        return new byte[0];
+    }
+
+    // Put back what saveState returned
+    default void restoreState(byte[] state) {
+    }
+
+    // Term of the machine's state hash (see Memory.getStateHash): the XOR of
+    // Memory.hashOf(address, peek(address)) over the device's addresses, so its bytes hash
+    // as they would in plain memory, XORed with a term for any state peeks don't show
+    long stateHash();
+}
@@ -0,0 +1,213 @@
+package program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Decodes memory into instruction listings without executing anything.
+// Decoded lines are cached per address together with the version of the memory
+// pages they were read from; a Memory.write to those pages makes them stale.
+public class Disassembler {
+
+    // One decoded instruction
+    public static class Line {
+        public final int address;
+        public final int size;
+        public final int[] bytes;
+        public final String mnemonic;
+        public final String operand; // "" for inherent instructions
+        public final String label;   // null if no symbol points here
+
+        public Line(int address, int[] bytes, String mnemonic, String operand, String label) {
+            this.address = address;
+            this.size = bytes.length;
+            this.bytes = bytes;
+            this.mnemonic = mnemonic;
+            this.operand = operand;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return operand.isEmpty() ? mnemonic : mnemonic + " " + operand;
+        }
+    }
+
+    // Opcode tables built from the assembler's own encoding
+    private static final String[] MNEMONICS = new String[256];
+    private static final String[] MODES = new String[256];
+    private static final int[] SIZES = new int[256];
+
+    static {
+        String[] full = { "LDA", "LDB", "LDX", "ADDA", "ADDB", "SUBA", "SUBB" };
+        String[] store = { "STA", "STB", "STX" };
+        String[] immediate = { "ANDCC", "ORCC" };
+        String[] inherent = { "INCA", "INCB", "DECA", "DECB", "NOP", "RTI", "END" };
+        String[] branch = { "BRA", "BEQ", "BNE" };
+        for (String mnemonic : full) {
+            define(mnemonic, "IMMEDIATE");
+            define(mnemonic, "DIRECT");
+            define(mnemonic, "EXTENDED");
+        }
+        for (String mnemonic : store) {
+            define(mnemonic, "DIRECT");
+            define(mnemonic, "EXTENDED");
+        }
+        for (String mnemonic : immediate) {
+            define(mnemonic, "IMMEDIATE");
+        }
+        for (String mnemonic : inherent) {
+            define(mnemonic, "INHERENT");
+        }
+        for (String mnemonic : branch) {
+            define(mnemonic, "RELATIVE");
+        }
+    }
+
+    private static void define(String mnemonic, String mode) {
+        Instruction instr = new Instruction(mnemonic, mode, 0);
+        MNEMONICS[instr.opcode] = mnemonic;
+        MODES[instr.opcode] = mode;
+        SIZES[instr.opcode] = instr.size;
+    }
+
+    // True for mnemonics the assembler knows
+    public static boolean isMnemonic(String mnemonic) {
+        for (String known : MNEMONICS) {
+            if (mnemonic.equals(known)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Size in bytes of the instruction starting with opcode (1 for unknown opcodes)
+    public static int sizeOf(int opcode) {
+        return MNEMONICS[opcode & 0xFF] != null ? SIZES[opcode & 0xFF] : 1;
+    }
+
+    private final Memory memory;
+    private final Line[] cache = new Line[0x10000];
+    private final int[] firstPageVersion = new int[0x10000];
+    private final int[] lastPageVersion = new int[0x10000];
+    private Map<Integer, String> labels = new HashMap<>();
+    private int decodeCount;
+
+    public Disassembler(Memory memory) {
+        this.memory = memory;
+    }
+
+    // Show symbol names for addresses and branch targets
+    public void setSymbols(Map<String, Integer> symbols) {
+        labels = new HashMap<>();
+        for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+            labels.putIfAbsent(symbol.getValue(), symbol.getKey());
+        }
+        clearCache();
+    }
+
+    public void clearCache() {
+        Arrays.fill(cache, null);
+    }
+
+    // Decode the instruction at address, reusing the cached line if memory did not change
+    public Line decode(int address) {
+        address &= 0xFFFF;
+        Line line = cache[address];
+        if (line != null
+                && firstPageVersion[address] == memory.getPageVersion(address)
+                && lastPageVersion[address] == memory.getPageVersion(address + line.size - 1)) {
+            return line;
+        }
+
+        line = decodeAt(address);
+        cache[address] = line;
+        firstPageVersion[address] = memory.getPageVersion(address);
+        lastPageVersion[address] = memory.getPageVersion(address + line.size - 1);
+        return line;
+    }
+
+    // Decode count consecutive instructions starting at address
+    public List<Line> disassemble(int address, int count) {
+        List<Line> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Line line = decode(address);
+            lines.add(line);
+            address = (address + line.size) & 0xFFFF;
+        }
+        return lines;
+    }
+
+    // Listing with up to before lines ahead of pc and after lines from pc on.
+    // Decoding backwards is ambiguous, so try start points before pc until one lines up with it.
+    public List<Line> listingAround(int pc, int before, int after) {
+        pc &= 0xFFFF;
+        List<Line> leading = new ArrayList<>();
+        for (int start = Math.max(0, pc - before * 3); start < pc; start++) {
+            List<Line> path = new ArrayList<>();
+            int address = start;
+            while (address < pc) {
+                Line line = decode(address);
+                path.add(line);
+                address += line.size;
+            }
+            if (address == pc) {
+                leading = path.subList(Math.max(0, path.size() - before), path.size());
+                break;
+            }
+        }
+
+        List<Line> lines = new ArrayList<>(leading);
+        lines.addAll(disassemble(pc, after));
+        return lines;
+    }
+
+    // Number of instructions actually decoded (cache misses)
+    public int getDecodeCount() {
+        return decodeCount;
+    }
+
+    private Line decodeAt(int address) {
+        decodeCount++;
+        int opcode = memory.peek(address);
+        String mnemonic = MNEMONICS[opcode];
+        String label = labels.get(address);
+        if (mnemonic == null) {
+            return new Line(address, new int[] { opcode }, "FCB", String.format("$%02X", opcode), label);
+        }
+
+        int[] bytes = new int[SIZES[opcode]];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = memory.peek(address + i);
+        }
+
+        String operand;
+        switch (MODES[opcode]) {
+            case "IMMEDIATE":
+                operand = bytes.length == 3
+                        ? String.format("#$%04X", (bytes[1] << 8) | bytes[2])
+                        : String.format("#$%02X", bytes[1]);
+                break;
+            case "DIRECT":
+                operand = String.format("$%02X", bytes[1]);
+                break;
+            case "EXTENDED":
+                operand = symbolOr((bytes[1] << 8) | bytes[2]);
+                break;
+            case "RELATIVE":
+                operand = symbolOr((address + 2 + (byte) bytes[1]) & 0xFFFF);
+                break;
+            default:
+                operand = "";
+                break;
+        }
+        return new Line(address, bytes, mnemonic, operand, label);
+    }
+
+    private String symbolOr(int address) {
+        String label = labels.get(address);
+        return label != null ? label : String.format("$%04X", address);
+    }
+}
@@ -0,0 +1,389 @@
+package program;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Small expression language over the machine state, for breakpoint conditions and
+// tracepoints. Compiling parses once into a tree of lambdas (constants folded, register
+// and fixed-address reads as direct leaves), so evaluating at a breakpoint hit costs a
+// few calls rather than another parse.
+//   Registers  A B D X Y S U PC DP CC, flags E F H I N Z V C (0 or 1), CYCLES
+//   Memory     mem[expr] (byte), word[expr] (big endian); read with peek, no side effects
+//   Numbers    $1F, 0x1F, %1010, 31
+//   Operators  ! - ~ (unary), * / %, + -, < <= > >=, == != (or =), &, ^, |, && (and), || (or)
+// Values are longs (CYCLES runs past 2^31) and comparisons give 1 or 0, so "A > $40 && mem[$20] == 0" works as a condition.
+public class Expression {
+
+    @FunctionalInterface
+    public interface Evaluator {
+        long eval(CPU cpu, Memory memory);
+    }
+
+    private final String text;
+    private final Evaluator evaluator;
+
+    private Expression(String text, Evaluator evaluator) {
+        this.text = text;
+        this.evaluator = evaluator;
+    }
+
+    // Compile, or throw IllegalArgumentException saying what is wrong and where
+    public static Expression compile(String text) {
+        Parser parser = new Parser(text);
+        Node node = parser.parseOr();
+        if (parser.position < parser.tokens.size()) {
+            throw parser.error("Unexpected " + parser.peek());
+        }
+        return new Expression(text.trim(), node.evaluator);
+    }
+
+    public long eval(CPU cpu, Memory memory) {
+        return evaluator.eval(cpu, memory);
+    }
+
+    public boolean test(CPU cpu, Memory memory) {
+        return evaluator.eval(cpu, memory) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // Parse tree node; constant nodes fold away before evaluators are built
+    private static class Node {
+        final Evaluator evaluator;
+        final boolean constant;
+        final long value;
+
+        Node(Evaluator evaluator) {
+            this.evaluator = evaluator;
+            this.constant = false;
+            this.value = 0;
+        }
+
+        Node(long value) {
+            this.evaluator = (cpu, memory) -> value;
+            this.constant = true;
+            this.value = value;
+        }
+    }
+
+    private static class Parser {
+        final String text;
+        final List<String> tokens = new ArrayList<>();
+        final List<Integer> columns = new ArrayList<>();
+        int position;
+
+        Parser(String text) {
+            this.text = text;
+            tokenize();
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (Character.isLetterOrDigit(c) || c == '$' || c == '_' || c == '%' && i + 1 < text.length()
+                        && (text.charAt(i + 1) == '0' || text.charAt(i + 1) == '1') && isOperandStart()) {
+                    i++;
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                        i++;
+                    }
+                } else if (i + 1 < text.length() && "== != <= >= && ||".contains(text.substring(i, i + 2))
+                        && text.substring(i, i + 2).trim().length() == 2) {
+                    i += 2;
+                } else if ("!-~*/%+<>=&^|()[]".indexOf(c) >= 0) {
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' at column " + (i + 1) + " in: " + text);
+                }
+                tokens.add(text.substring(start, i));
+                columns.add(start + 1);
+            }
+        }
+
+        // A % starts a binary number only where an operand is expected
+        private boolean isOperandStart() {
+            if (tokens.isEmpty()) {
+                return true;
+            }
+            String last = tokens.get(tokens.size() - 1);
+            return !last.equals(")") && !last.equals("]") && !Character.isLetterOrDigit(last.charAt(last.length() - 1));
+        }
+
+        String peek() {
+            return position < tokens.size() ? tokens.get(position) : "end of expression";
+        }
+
+        boolean accept(String... options) {
+            if (position < tokens.size()) {
+                for (String option : options) {
+                    if (tokens.get(position).equalsIgnoreCase(option)) {
+                        position++;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw error("Expected " + token + " but found " + peek());
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            int column = position < columns.size() ? columns.get(position) : text.length() + 1;
+            return new IllegalArgumentException(message + " at column " + column + " in: " + text);
+        }
+
+        Node parseOr() {
+            Node left = parseAnd();
+            while (accept("||", "or")) {
+                Evaluator a = left.evaluator, b = parseAnd().evaluator;
+                left = new Node((cpu, memory) -> a.eval(cpu, memory) != 0 || b.eval(cpu, memory) != 0 ? 1 : 0);
+            }
+            return left;
+        }
+
+        Node parseAnd() {
+            Node left = parseBitOr();
+            while (accept("&&", "and")) {
+                Evaluator a = left.evaluator, b = parseBitOr().evaluator;
+                left = new Node((cpu, memory) -> a.eval(cpu, memory) != 0 && b.eval(cpu, memory) != 0 ? 1 : 0);
+            }
+            return left;
+        }
+
+        Node parseBitOr() {
+            Node left = parseBitXor();
+            while (accept("|")) {
+                left = binary("|", left, parseBitXor());
+            }
+            return left;
+        }
+
+        Node parseBitXor() {
+            Node left = parseBitAnd();
+            while (accept("^")) {
+                left = binary("^", left, parseBitAnd());
+            }
+            return left;
+        }
+
+        Node parseBitAnd() {
+            Node left = parseEquality();
+            while (accept("&")) {
+                left = binary("&", left, parseEquality());
+            }
+            return left;
+        }
+
+        Node parseEquality() {
+            Node left = parseRelational();
+            while (true) {
+                if (accept("==", "=")) {
+                    left = binary("==", left, parseRelational());
+                } else if (accept("!=")) {
+                    left = binary("!=", left, parseRelational());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseRelational() {
+            Node left = parseAdditive();
+            while (true) {
+                String op = peek();
+                if (accept("<", "<=", ">", ">=")) {
+                    left = binary(op, left, parseAdditive());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseAdditive() {
+            Node left = parseMultiplicative();
+            while (true) {
+                String op = peek();
+                if (accept("+", "-")) {
+                    left = binary(op, left, parseMultiplicative());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseMultiplicative() {
+            Node left = parseUnary();
+            while (true) {
+                String op = peek();
+                if (accept("*", "/", "%")) {
+                    left = binary(op, left, parseUnary());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Node parseUnary() {
+            String op = peek();
+            if (accept("!", "not", "-", "~")) {
+                Node operand = parseUnary();
+                Evaluator a = operand.evaluator;
+                switch (op.toLowerCase()) {
+                    case "-":
+                        return operand.constant ? new Node(-operand.value) : new Node((cpu, memory) -> -a.eval(cpu, memory));
+                    case "~":
+                        return operand.constant ? new Node(~operand.value) : new Node((cpu, memory) -> ~a.eval(cpu, memory));
+                    default:
+                        return operand.constant ? new Node(operand.value == 0 ? 1 : 0)
+                                : new Node((cpu, memory) -> a.eval(cpu, memory) == 0 ? 1 : 0);
+                }
+            }
+            return parsePrimary();
+        }
+
+        Node parsePrimary() {
+            if (accept("(")) {
+                Node inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            if (position >= tokens.size()) {
+                throw error("Expected a value but found end of expression");
+            }
+            String token = tokens.get(position);
+            if (accept("mem", "byte")) {
+                Node address = index();
+                if (address.constant) {
+                    int fixed = (int) (address.value & 0xFFFF);
+                    return new Node((cpu, memory) -> memory.peek(fixed));
+                }
+                Evaluator a = address.evaluator;
+                return new Node((cpu, memory) -> memory.peek((int) (a.eval(cpu, memory) & 0xFFFF)));
+            }
+            if (accept("word")) {
+                Node address = index();
+                Evaluator a = address.evaluator;
+                return new Node((cpu, memory) -> {
+                    int at = (int) (a.eval(cpu, memory) & 0xFFFF);
+                    return memory.peek(at) << 8 | memory.peek((at + 1) & 0xFFFF);
+                });
+            }
+            Long number = number(token);
+            if (number != null) {
+                position++;
+                return new Node(number);
+            }
+            Evaluator register = register(token.toUpperCase());
+            if (register == null) {
+                throw error("Unknown name " + token);
+            }
+            position++;
+            return new Node(register);
+        }
+
+        private Node index() {
+            expect("[");
+            Node address = parseOr();
+            expect("]");
+            return address;
+        }
+
+        private static Long number(String token) {
+            try {
+                if (token.startsWith("$")) {
+                    return Long.parseLong(token.substring(1), 16);
+                }
+                if (token.startsWith("0x") || token.startsWith("0X")) {
+                    return Long.parseLong(token.substring(2), 16);
+                }
+                if (token.startsWith("%")) {
+                    return Long.parseLong(token.substring(1), 2);
+                }
+                if (Character.isDigit(token.charAt(0))) {
+                    return Long.parseLong(token);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return null;
+        }
+
+        private static Evaluator register(String name) {
+            switch (name) {
+                case "A": return (cpu, memory) -> cpu.regA;
+                case "B": return (cpu, memory) -> cpu.regB;
+                case "D": return (cpu, memory) -> cpu.regA << 8 | cpu.regB;
+                case "X": return (cpu, memory) -> cpu.regX;
+                case "Y": return (cpu, memory) -> cpu.regY;
+                case "S": return (cpu, memory) -> cpu.regS;
+                case "U": return (cpu, memory) -> cpu.regU;
+                case "PC": return (cpu, memory) -> cpu.regPC;
+                case "DP": return (cpu, memory) -> cpu.regDP;
+                case "CC": return (cpu, memory) -> cpu.regCC;
+                case "CYCLES": return (cpu, memory) -> cpu.cycles;
+                default:
+                    int bit = "CVZNIHFE".indexOf(name);
+                    if (name.length() == 1 && bit >= 0) {
+                        return (cpu, memory) -> cpu.regCC >> bit & 1;
+                    }
+                    return null;
+            }
+        }
+
+        // Fold two constants, otherwise build the operator's lambda
+        private Node binary(String op, Node left, Node right) {
+            if (left.constant && right.constant) {
+                return new Node(apply(op, left.value, right.value));
+            }
+            Evaluator a = left.evaluator, b = right.evaluator;
+            switch (op) {
+                case "+": return new Node((cpu, memory) -> a.eval(cpu, memory) + b.eval(cpu, memory));
+                case "-": return new Node((cpu, memory) -> a.eval(cpu, memory) - b.eval(cpu, memory));
+                case "*": return new Node((cpu, memory) -> a.eval(cpu, memory) * b.eval(cpu, memory));
+                case "/": return new Node((cpu, memory) -> apply("/", a.eval(cpu, memory), b.eval(cpu, memory)));
+                case "%": return new Node((cpu, memory) -> apply("%", a.eval(cpu, memory), b.eval(cpu, memory)));
+                case "&": return new Node((cpu, memory) -> a.eval(cpu, memory) & b.eval(cpu, memory));
+                case "|": return new Node((cpu, memory) -> a.eval(cpu, memory) | b.eval(cpu, memory));
+                case "^": return new Node((cpu, memory) -> a.eval(cpu, memory) ^ b.eval(cpu, memory));
+                case "==": return new Node((cpu, memory) -> a.eval(cpu, memory) == b.eval(cpu, memory) ? 1 : 0);
+                case "!=": return new Node((cpu, memory) -> a.eval(cpu, memory) != b.eval(cpu, memory) ? 1 : 0);
+                case "<": return new Node((cpu, memory) -> a.eval(cpu, memory) < b.eval(cpu, memory) ? 1 : 0);
+                case "<=": return new Node((cpu, memory) -> a.eval(cpu, memory) <= b.eval(cpu, memory) ? 1 : 0);
+                case ">": return new Node((cpu, memory) -> a.eval(cpu, memory) > b.eval(cpu, memory) ? 1 : 0);
+                default: return new Node((cpu, memory) -> a.eval(cpu, memory) >= b.eval(cpu, memory) ? 1 : 0);
+            }
+        }
+
+        // Division and remainder by zero give 0 rather than stopping the run
+        private static long apply(String op, long a, long b) {
+            switch (op) {
+                case "+": return a + b;
+                case "-": return a - b;
+                case "*": return a * b;
+                case "/": return b == 0 ? 0 : a / b;
+                case "%": return b == 0 ? 0 : a % b;
+                case "&": return a & b;
+                case "|": return a | b;
+                case "^": return a ^ b;
+                case "==": return a == b ? 1 : 0;
+                case "!=": return a != b ? 1 : 0;
+                case "<": return a < b ? 1 : 0;
+                case "<=": return a <= b ? 1 : 0;
+                case ">": return a > b ? 1 : 0;
+                default: return a >= b ? 1 : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package program;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+// Blocking NIO file transfers meant to run off the EDT.
+// Progress is reported as a percentage; memory is only touched while holding lock,
+// one chunk at a time, so a running simulation is never held up for a whole file.
+public class FileIO {
+    private static final int CHUNK = 64 * 1024;
+
+    // Read a UTF-8 text file
+    public static String readText(Path path, IntConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + path.getFileName());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                int limit = Math.min(buffer.capacity(), buffer.position() + CHUNK);
+                buffer.limit(limit);
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+                progress.accept(percent(buffer.position(), size));
+            }
+            buffer.flip();
+            return StandardCharsets.UTF_8.decode(buffer).toString().replace("\r", "");
+        }
+    }
+
+    // Write text as UTF-8, replacing the file
+    public static void writeText(Path path, String text, IntConsumer progress) throws IOException {
+        write(path, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), progress);
+    }
+
+    // Map a raw image and copy it into memory at address (at most maxLength bytes)
+    public static int loadImage(Path path, Memory memory, Object lock, int address, int maxLength,
+            IntConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int length = (int) Math.min(channel.size(), maxLength);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            byte[] chunk = new byte[Math.min(CHUNK, Math.max(length, 1))];
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                int count = Math.min(chunk.length, length - offset);
+                byte[] part = count == chunk.length ? chunk : new byte[count];
+                mapped.get(part);
+                synchronized (lock) {
+                    memory.load(address + offset, part);
+                }
+                progress.accept(percent(offset + count, length));
+            }
+            return length;
+        }
+    }
+
+    // Write bytes to a file, replacing it
+    public static void writeImage(Path path, byte[] data, IntConsumer progress) throws IOException {
+        write(path, ByteBuffer.wrap(data), progress);
+    }
+
+    private static void write(Path path, ByteBuffer buffer, IntConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                ByteBuffer slice = buffer.slice();
+                slice.limit(Math.min(slice.remaining(), CHUNK));
+                int written = channel.write(slice);
+                buffer.position(buffer.position() + written);
+                progress.accept(percent(size - buffer.remaining(), size));
+            }
+        }
+    }
+
+    private static int percent(long done, long total) {
+        return total == 0 ? 100 : (int) (done * 100 / total);
+    }
+}
@@ -0,0 +1,90 @@
+package program;
+
+import java.util.Arrays;
+
+// 64x64 framebuffer, one RGB332 byte per pixel (RRRGGGBB), rows of 64 bytes from BASE.
+// Every Simulator attaches it, so MemoryMap.defaultMap keeps sections out of its range.
+// Writes only mark their scanline dirty; the display takes the dirty set and copies
+// those rows while holding the simulator lock, so a program filling video RAM at full
+// speed costs one bit per write and at most one copy of each row per frame.
+public class FrameBuffer implements Device {
+    public static final int BASE = 0x6000;
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 64;
+    public static final int SIZE = WIDTH * HEIGHT;
+
+    // RGB332 to 0xRRGGBB
+    private static final int[] PALETTE = new int[256];
+    static {
+        for (int value = 0; value < 256; value++) {
+            int r = (value >> 5) * 255 / 7;
+            int g = ((value >> 2) & 7) * 255 / 7;
+            int b = (value & 3) * 255 / 3;
+            PALETTE[value] = r << 16 | g << 8 | b;
+        }
+    }
+
+    private final byte[] pixels = new byte[SIZE];
+    private long dirtyRows = -1L; // One bit per scanline, everything dirty at first
+    private long hash = rehash(); // stateHash, one term swapped per write
+
+    @Override
+    public int read(int address) {
+        return pixels[(address - BASE) & (SIZE - 1)] & 0xFF;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        int offset = (address - BASE) & (SIZE - 1);
+        hash ^= Memory.hashOf(BASE + offset, pixels[offset] & 0xFF) ^ Memory.hashOf(BASE + offset, value & 0xFF);
+        pixels[offset] = (byte) value;
+        dirtyRows |= 1L << (offset >> 6);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(pixels, (byte) 0);
+        dirtyRows = -1L;
+        hash = rehash();
+    }
+
+    @Override
+    public long stateHash() {
+        return hash;
+    }
+
+    private long rehash() {
+        long sum = 0;
+        for (int offset = 0; offset < SIZE; offset++) {
+            sum ^= Memory.hashOf(BASE + offset, pixels[offset] & 0xFF);
+        }
+        return sum;
+    }
+
+    @Override
+    public byte[] saveState() {
+        return pixels.clone();
+    }
+
+    @Override
+    public void restoreState(byte[] state) {
+        System.arraycopy(state, 0, pixels, 0, Math.min(state.length, SIZE));
+        dirtyRows = -1L;
+        hash = rehash();
+    }
+
+    // Take the set of scanlines written since the last call (call while holding the simulator lock)
+    public long takeDirtyRows() {
+        long rows = dirtyRows;
+        dirtyRows = 0;
+        return rows;
+    }
+
+    // Convert one scanline to RGB into out starting at offset
+    public void copyRow(int row, int[] out, int offset) {
+        int start = row * WIDTH;
+        for (int x = 0; x < WIDTH; x++) {
+            out[offset + x] = PALETTE[pixels[start + x] & 0xFF];
+        }
+    }
+}
@@ -2,8 +2,9 @@ package program;
 
 public class Instruction {
     public String mnemonic;      // e.g., "LDA", "STA"
-    public String addressMode;   // "IMMEDIATE", "DIRECT", "INHERENT", "EXTENDED"
+    public String addressMode;   // "IMMEDIATE", "DIRECT", "INHERENT", "EXTENDED", "RELATIVE"
     public int operand;          // The value or address
+    public String symbol;        // Symbolic operand resolved by the linker (null if numeric)
     public int opcode;           // The actual opcode byte
     public int size;             // Total instruction size in bytes
     
@@ -21,16 +22,35 @@ public class Instruction {
             case "INHERENT":
                 return 1; // Just opcode
             case "IMMEDIATE":
-                return 2; // Opcode + immediate value
+                return is16BitImmediate() ? 3 : 2; // Opcode + immediate value
             case "DIRECT":
                 return 2; // Opcode + direct address (8-bit)
             case "EXTENDED":
                 return 3; // Opcode + extended address (16-bit)
+            case "RELATIVE":
+                return 2; // Opcode + 8-bit signed offset
             default:
                 return 1;
         }
     }
     
+    // LDX takes a 16-bit immediate value
+    public boolean is16BitImmediate() {
+        return addressMode.equals("IMMEDIATE") && mnemonic.equals("LDX");
+    }
+    
+    // Branch instructions take a relative offset
+    public static boolean isBranch(String mnemonic) {
+        switch (mnemonic) {
+            case "BRA":
+            case "BEQ":
+            case "BNE":
+                return true;
+            default:
+                return false;
+        }
+    }
+    
     // Get opcode for instruction (simplified set)
     private int getOpcode() {
         switch (mnemonic) {
@@ -88,6 +108,12 @@ public class Instruction {
             // Special
             case "NOP":
                 return 0x12;
+            case "ANDCC":
+                return 0x1C;
+            case "ORCC":
+                return 0x1A;
+            case "RTI":
+                return 0x3B;
             case "END":
                 return 0x00; // Our custom end marker
                 
@@ -98,6 +124,9 @@ public class Instruction {
     
     @Override
     public String toString() {
+        if (symbol != null) {
+            return addressMode.equals("IMMEDIATE") ? mnemonic + " #" + symbol : mnemonic + " " + symbol;
+        }
         switch (addressMode) {
             case "IMMEDIATE":
                 return String.format("%s #$%02X", mnemonic, operand);
@@ -105,6 +134,8 @@ public class Instruction {
                 return String.format("%s $%02X", mnemonic, operand);
             case "EXTENDED":
                 return String.format("%s $%04X", mnemonic, operand);
+            case "RELATIVE":
+                return String.format("%s $%02X", mnemonic, operand & 0xFF);
             case "INHERENT":
                 return mnemonic;
             default:
@@ -0,0 +1,105 @@
+package program;
+
+import java.awt.*;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+
+// Row header that paints the numbers of the visible lines only
+public class LineNumberGutter extends JComponent {
+    private static final int PADDING = 5;
+
+    private final JTextComponent editor;
+    private int digits = 0;
+    private int width;
+
+    public LineNumberGutter(JTextComponent editor) {
+        this.editor = editor;
+        setFont(editor.getFont());
+        setForeground(new Color(120, 120, 120));
+        setBackground(new Color(40, 40, 40));
+        setOpaque(true);
+        updateWidth();
+
+        // Follow the editor's height so the row header scrolls with it
+        editor.addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentResized(java.awt.event.ComponentEvent e) {
+                revalidate();
+            }
+        });
+
+        // Only the width depends on the document (number of digits in the last line number)
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes don't move lines
+            }
+        });
+    }
+
+    private void documentChanged() {
+        updateWidth();
+        repaint();
+    }
+
+    private void updateWidth() {
+        int lineCount = editor.getDocument().getDefaultRootElement().getElementCount();
+        int newDigits = Math.max(2, String.valueOf(lineCount).length());
+        if (newDigits != digits) {
+            digits = newDigits;
+            FontMetrics metrics = getFontMetrics(getFont());
+            width = metrics.charWidth('0') * digits + 2 * PADDING;
+            revalidate();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(width, editor.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        FontMetrics metrics = g.getFontMetrics();
+        Element root = editor.getDocument().getDefaultRootElement();
+
+        // First line touching the clip, then walk down until past its bottom
+        int startOffset = editor.viewToModel2D(new Point(0, clip.y));
+        int line = root.getElementIndex(startOffset);
+        int lineCount = root.getElementCount();
+        try {
+            while (line < lineCount) {
+                Rectangle r = editor.modelToView2D(root.getElement(line).getStartOffset()).getBounds();
+                if (r.y > clip.y + clip.height) {
+                    break;
+                }
+                String number = String.valueOf(line + 1);
+                int x = getWidth() - PADDING - metrics.stringWidth(number);
+                g.drawString(number, x, r.y + metrics.getAscent());
+                line++;
+            }
+        } catch (BadLocationException e) {
+            // Document changed while painting, the next repaint catches up
+        }
+    }
+}
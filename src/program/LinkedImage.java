@@ -0,0 +1,183 @@
+package program;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Absolute, loadable result of linking: placed segments, the final symbol table and
+// the source line of every instruction (by the address of its first byte)
+public class LinkedImage {
+    private static final int MAGIC = 0x36383039; // "6809"
+    private static final int VERSION = 3;
+
+    public static class Segment {
+        public final int address;
+        public final byte[] data;
+
+        public Segment(int address, byte[] data) {
+            this.address = address;
+            this.data = data;
+        }
+    }
+
+    // Where an instruction came from: source file (module name for the main source) and line
+    public static class SourceLocation {
+        public final String file;
+        public final int line;
+
+        public SourceLocation(String file, int line) {
+            this.file = file;
+            this.line = line;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Integer, SourceLocation> lines = new TreeMap<>();
+    private final Map<String, Integer> symbols = new TreeMap<>();
+    private final Map<String, Long> dependencies = new LinkedHashMap<>(); // Include file -> modification time
+    private int entry;
+
+    public void addSegment(int address, byte[] data) {
+        segments.add(new Segment(address, data));
+    }
+
+    // Names are unique in an image (the linker qualifies clashing local labels)
+    public void defineSymbol(String name, int address) {
+        if (symbols.putIfAbsent(name, address) != null) {
+            throw new IllegalArgumentException("Symbol " + name + " is already defined");
+        }
+    }
+
+    public void addLine(int address, String file, int line) {
+        lines.put(address & 0xFFFF, new SourceLocation(file, line));
+    }
+
+    public void setEntry(int entry) {
+        this.entry = entry & 0xFFFF;
+    }
+
+    public int getEntry() {
+        return entry;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public Map<String, Integer> getSymbols() {
+        return symbols;
+    }
+
+    public Map<String, Long> getDependencies() {
+        return dependencies;
+    }
+
+    // Instruction address -> source location, in address order
+    public Map<Integer, SourceLocation> getLines() {
+        return lines;
+    }
+
+    // Source of the instruction starting at address, null if none does
+    public SourceLocation getLine(int address) {
+        return lines.get(address & 0xFFFF);
+    }
+
+    // Total number of bytes in the image
+    public int size() {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.data.length;
+        }
+        return total;
+    }
+
+    // Bulk load every segment and point the reset vector at the entry.
+    // Handlers labelled IRQ, FIRQ or NMI get their vectors filled in the same way.
+    public void loadInto(Memory memory) {
+        boolean hasVectors = false;
+        for (Segment segment : segments) {
+            memory.load(segment.address, segment.data);
+            if (segment.address <= 0xFFFF && segment.address + segment.data.length > 0xFFF6) {
+                hasVectors = true;
+            }
+        }
+        if (!hasVectors) {
+            memory.load(0xFFFE, new byte[] { (byte) (entry >> 8), (byte) entry });
+            loadVector(memory, "FIRQ", 0xFFF6);
+            loadVector(memory, "IRQ", 0xFFF8);
+            loadVector(memory, "NMI", 0xFFFC);
+        }
+    }
+
+    private void loadVector(Memory memory, String handler, int vector) {
+        Integer address = symbols.get(handler);
+        if (address != null) {
+            memory.load(vector, new byte[] { (byte) (address >> 8), (byte) (int) address });
+        }
+    }
+
+    // Write the image and its symbol table in binary form
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeShort(entry);
+        out.writeInt(segments.size());
+        for (Segment segment : segments) {
+            out.writeShort(segment.address);
+            out.writeInt(segment.data.length);
+            out.write(segment.data);
+        }
+        out.writeInt(symbols.size());
+        for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+            out.writeUTF(symbol.getKey());
+            out.writeShort(symbol.getValue());
+        }
+        out.writeInt(dependencies.size());
+        for (Map.Entry<String, Long> dependency : dependencies.entrySet()) {
+            out.writeUTF(dependency.getKey());
+            out.writeLong(dependency.getValue());
+        }
+        out.writeInt(lines.size());
+        for (Map.Entry<Integer, SourceLocation> line : lines.entrySet()) {
+            out.writeShort(line.getKey());
+            out.writeUTF(line.getValue().file);
+            out.writeInt(line.getValue().line);
+        }
+    }
+
+    // Read an image written by writeTo
+    public static LinkedImage readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a 6809 image");
+        }
+        LinkedImage image = new LinkedImage();
+        image.setEntry(in.readUnsignedShort());
+        int segmentCount = in.readInt();
+        for (int i = 0; i < segmentCount; i++) {
+            int address = in.readUnsignedShort();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            image.addSegment(address, data);
+        }
+        int symbolCount = in.readInt();
+        for (int i = 0; i < symbolCount; i++) {
+            image.defineSymbol(in.readUTF(), in.readUnsignedShort());
+        }
+        int dependencyCount = in.readInt();
+        for (int i = 0; i < dependencyCount; i++) {
+            image.dependencies.put(in.readUTF(), in.readLong());
+        }
+        int lineCount = in.readInt();
+        for (int i = 0; i < lineCount; i++) {
+            int address = in.readUnsignedShort();
+            String file = in.readUTF();
+            image.addLine(address, file, in.readInt());
+        }
+        return image;
+    }
+}
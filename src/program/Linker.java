@@ -0,0 +1,184 @@
+package program;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Linker {
+    private LinkedImage image;
+    private String errorMessage;
+
+    public Linker() {
+        image = null;
+        errorMessage = null;
+    }
+
+    // Place every module's sections according to the memory map and resolve all symbols
+    public boolean link(List<ObjectModule> modules, MemoryMap map) {
+        image = null;
+        errorMessage = null;
+
+        // Place sections one after another inside their region, in module order
+        Map<String, Integer> cursors = new HashMap<>();
+        Map<ObjectModule.Section, Integer> bases = new IdentityHashMap<>();
+        for (ObjectModule module : modules) {
+            for (ObjectModule.Section section : module.getSections()) {
+                if (section.getSize() == 0) {
+                    continue;
+                }
+                MemoryMap.Region region = map.getRegion(section.name);
+                if (region == null) {
+                    errorMessage = "Link Error: no memory region for section " + section.name + " in " + module.getName();
+                    return false;
+                }
+                int base = cursors.getOrDefault(region.section, region.start);
+                if (base + section.getSize() - 1 > region.end) {
+                    errorMessage = String.format("Link Error: section %s overflows region $%04X-$%04X in %s",
+                            section.name, region.start, region.end, module.getName());
+                    return false;
+                }
+                MemoryMap.Region device = map.findReserved(base, base + section.getSize() - 1);
+                if (device != null) {
+                    errorMessage = String.format("Link Error: section %s ($%04X-$%04X) overlaps %s at $%04X-$%04X in %s",
+                            section.name, base, base + section.getSize() - 1, device.section, device.start, device.end,
+                            module.getName());
+                    return false;
+                }
+                bases.put(section, base);
+                cursors.put(region.section, base + section.getSize());
+            }
+        }
+
+        // Modules defining each label, to tell which local labels clash
+        Map<String, Integer> definitions = new HashMap<>();
+        for (ObjectModule module : modules) {
+            for (String name : module.getSymbols().keySet()) {
+                definitions.merge(name, 1, Integer::sum);
+            }
+        }
+
+        // Collect exported symbols
+        Map<String, Integer> globals = new HashMap<>();
+        Map<String, String> owners = new HashMap<>();
+        for (ObjectModule module : modules) {
+            for (String export : module.getExports()) {
+                Integer address = symbolAddress(module, export, bases);
+                if (address == null) {
+                    if (errorMessage == null) {
+                        errorMessage = "Link Error: exported symbol " + export + " is not defined in " + module.getName();
+                    }
+                    return false;
+                }
+                if (globals.containsKey(export)) {
+                    errorMessage = "Link Error: symbol " + export + " defined in both "
+                            + owners.get(export) + " and " + module.getName();
+                    return false;
+                }
+                globals.put(export, address);
+                owners.put(export, module.getName());
+            }
+        }
+
+        LinkedImage result = new LinkedImage();
+        for (Map.Entry<String, Integer> global : globals.entrySet()) {
+            result.defineSymbol(global.getKey(), global.getValue());
+        }
+
+        // Patch fixups into a copy of each section
+        for (ObjectModule module : modules) {
+            Map<String, byte[]> patched = new HashMap<>();
+            for (ObjectModule.Section section : module.getSections()) {
+                if (bases.containsKey(section)) {
+                    patched.put(section.name, section.getCode());
+                }
+            }
+
+            for (ObjectModule.Fixup fixup : module.getFixups()) {
+                // Local labels shadow exported symbols of other modules
+                Integer target = symbolAddress(module, fixup.symbol, bases);
+                if (errorMessage != null) {
+                    return false;
+                }
+                if (target == null) {
+                    target = globals.get(fixup.symbol);
+                }
+                if (target == null) {
+                    errorMessage = "Link Error: undefined symbol " + fixup.symbol + " in " + module.getName();
+                    return false;
+                }
+
+                byte[] code = patched.get(fixup.section);
+                int site = bases.get(module.getSection(fixup.section)) + fixup.offset;
+                if (fixup.kind == ObjectModule.FIXUP_ABS16) {
+                    code[fixup.offset] = (byte) (target >> 8);
+                    code[fixup.offset + 1] = (byte) target.intValue();
+                } else {
+                    // Offset is relative to the PC after the offset byte
+                    int offset = target - (site + 1);
+                    if (offset < -128 || offset > 127) {
+                        errorMessage = String.format("Link Error: branch to %s out of range at $%04X in %s",
+                                fixup.symbol, site, module.getName());
+                        return false;
+                    }
+                    code[fixup.offset] = (byte) offset;
+                }
+            }
+
+            for (ObjectModule.Section section : module.getSections()) {
+                if (bases.containsKey(section)) {
+                    result.addSegment(bases.get(section), patched.get(section.name));
+                }
+            }
+            // Local labels go in the symbol table as module.LABEL when another module
+            // defines or exports the same name
+            // (labels in an empty section have no address, and nothing refers to them)
+            for (ObjectModule.Symbol symbol : module.getSymbols().values()) {
+                if (module.getExports().contains(symbol.name) || !bases.containsKey(module.getSection(symbol.section))) {
+                    continue;
+                }
+                String name = definitions.get(symbol.name) > 1 || globals.containsKey(symbol.name)
+                        ? module.getName() + "." + symbol.name : symbol.name;
+                result.defineSymbol(name, symbolAddress(module, symbol.name, bases));
+            }
+            result.getDependencies().putAll(module.getDependencies());
+            for (ObjectModule.LineRecord line : module.getLines()) {
+                Integer base = bases.get(module.getSection(line.section));
+                if (base != null) {
+                    result.addLine(base + line.offset, line.file != null ? line.file : module.getName(), line.line);
+                }
+            }
+        }
+
+        // Start at START if some module exports it, otherwise at the beginning of CODE
+        Integer start = globals.get("START");
+        MemoryMap.Region code = map.getRegion(ObjectModule.DEFAULT_SECTION);
+        result.setEntry(start != null ? start : code != null ? code.start : 0x0000);
+
+        image = result;
+        return true;
+    }
+
+    // Final address of a module's own label, or null if it does not define it. An empty
+    // section is not placed, so a label in one has no address: that is an error.
+    private Integer symbolAddress(ObjectModule module, String name, Map<ObjectModule.Section, Integer> bases) {
+        ObjectModule.Symbol symbol = module.getSymbols().get(name);
+        if (symbol == null) {
+            return null;
+        }
+        Integer base = bases.get(module.getSection(symbol.section));
+        if (base == null) {
+            errorMessage = "Link Error: label " + name + " is in empty section " + symbol.section + " in " + module.getName();
+            return null;
+        }
+        return base + symbol.offset;
+    }
+
+    public LinkedImage getImage() {
+        return image;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -1,7 +1,22 @@
 package program;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.management.JMException;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 
 public class Main extends JFrame {
@@ -12,19 +27,65 @@ public class Main extends JFrame {
     final private ViewMemory romView;
     final private ViewEditor editorView;
     final private ViewCPU cpuView;
+    final private CustomMenuBar menuBar;
+    final private JFileChooser fileChooser;
+    private JFrame displayWindow;
     
     // Simulator
     final private Simulator simulator;
+    
+    // Samples CPU/memory state while running in the background (30 times per second)
+    final private Timer refreshTimer;
+    
+    // Scratch set of dirty memory pages
+    final private long[] dirtyPages = new long[4];
+    
+    // Tracepoint lines from the CPU thread, shown in the CPU view on the next update
+    // (lines past the capacity are dropped until the UI catches up)
+    final private ArrayBlockingQueue<String> traceLines = new ArrayBlockingQueue<>(1000);
+    final private List<String> traceScratch = new ArrayList<>();
 
     public Main() {
-        // Initialize Simulator
+        // Initialize Simulator (watchable over JMX with -Dm6809.jmx=true)
         simulator = new Simulator();
+        simulator.setAssemblyCache(openAssemblyCache());
+        if (Boolean.getBoolean("m6809.jmx")) {
+            try {
+                simulator.registerMBean("main");
+            } catch (JMException e) {
+                System.err.println("JMX registration failed: " + e.getMessage());
+            }
+        }
+        
+        // Remote debugging from external tools with -Dm6809.debugPort=<port>
+        Integer debugPort = Integer.getInteger("m6809.debugPort");
+        if (debugPort != null) {
+            try {
+                new DebugServer(simulator, debugPort).start();
+            } catch (IOException e) {
+                System.err.println("Debug server failed to start: " + e.getMessage());
+            }
+        }
+
+        // Serial port on the console (-Dm6809.serial=console) or a TCP client (-Dm6809.serial=tcp:<port>)
+        String serial = System.getProperty("m6809.serial");
+        if ("console".equals(serial)) {
+            simulator.connectSerial(System.in, System.out);
+        } else if (serial != null && serial.startsWith("tcp:")) {
+            try {
+                startSerialServer(Integer.parseInt(serial.substring(4)));
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Serial port failed to start: " + e.getMessage());
+            }
+        }
 
         // Initialize Visual Components
-        ramView = new ViewMemory(32768, 0x0000); // 32KB RAM
-        romView = new ViewMemory(32768, 0x8000); // 32KB ROM
+        ramView = new ViewMemory(simulator.getMemory(), 0x0000, 32768); // 32KB RAM
+        romView = new ViewMemory(simulator.getMemory(), 0x8000, 32768); // 32KB ROM
         editorView = new ViewEditor();
         cpuView = new ViewCPU();
+        simulator.setTraceOutput(traceLines::offer);
+        refreshTimer = new Timer(1000 / 30, e -> refreshRunningDisplay());
 
         // Setup Window
         setTitle("Motorola6809 Simulator");
@@ -34,7 +95,19 @@ public class Main extends JFrame {
         setLocationRelativeTo(null);
 
         // Attach menu bar
-        setJMenuBar(new CustomMenuBar());
+        menuBar = new CustomMenuBar();
+        setJMenuBar(menuBar);
+        
+        // File types for File > Load / Save, chosen by extension
+        fileChooser = new JFileChooser();
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Assembly source (*.asm)", "asm", "s"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("RAM image (*.ram)", "ram"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("ROM image (*.rom)", "rom"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Save state (*.sav)", "sav"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Recording (*.rec)", "rec"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Coverage report (*.html)", "html"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("LCOV tracefile (*.info)", "info"));
 
         // Main Content Area
         JPanel mainContent = new JPanel(new GridBagLayout());
@@ -76,16 +149,22 @@ public class Main extends JFrame {
         
         // Connect button actions
         setupButtonActions();
+        setupFileActions();
+        setupOptionActions();
         
         // Initialize display
         updateDisplay();
         
         setVisible(true);
+        
+        // Start the ROM view at the vectors, as before
+        SwingUtilities.invokeLater(() -> romView.gotoAddress("FF00"));
     }
 
     private void setupButtonActions() {
         // Assemble button
         editorView.btnAssemble.addActionListener(e -> {
+            stopRun();
             String sourceCode = editorView.getEditorText();
             boolean success = simulator.assemble(sourceCode);
             
@@ -101,56 +180,415 @@ public class Main extends JFrame {
             }
         });
         
-        // Step button
+        // Step button (only while not running, or while paused)
         editorView.btnStep.addActionListener(e -> {
+            if (simulator.isRunning() && !simulator.isPaused()) {
+                return;
+            }
             String instruction = simulator.step();
             cpuView.setInstructionText(instruction);
             updateDisplay();
         });
         
-        // Run button
+        // Run button: run on the background thread, then toggles pause/resume
         editorView.btnRun.addActionListener(e -> {
-            while (!simulator.getCPU().halted) {
-                String instruction = simulator.step();
-                cpuView.setInstructionText(instruction);
-                updateDisplay();
-                
-                // Small delay to see execution
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                    break;
+            if (!simulator.isRunning()) {
+                if (simulator.getCPU().halted) {
+                    return;
                 }
+                simulator.setClockRate(editorView.getClockRate());
+                simulator.start(() -> SwingUtilities.invokeLater(this::breakpointHit),
+                        () -> SwingUtilities.invokeLater(this::runFinished));
+                refreshTimer.start();
+                editorView.btnRun.setText("Pause");
+            } else if (simulator.isPaused()) {
+                simulator.resume();
+                refreshTimer.start();
+                editorView.btnRun.setText("Pause");
+            } else {
+                simulator.pause();
+                refreshTimer.stop();
+                refreshRunningDisplay();
+                editorView.btnRun.setText("Resume");
             }
         });
         
+        // Stop button
+        editorView.btnStop.addActionListener(e -> stopRun());
+        
+        // Speed can be changed while running
+        editorView.speedSelector.addActionListener(e -> simulator.setClockRate(editorView.getClockRate()));
+        
         // Reset button
         editorView.btnReset.addActionListener(e -> {
+            stopRun();
             simulator.reset();
             updateDisplay();
             cpuView.setInstructionText("CPU RESET - READY");
         });
     }
     
-    private void updateDisplay() {
-        CPU cpu = simulator.getCPU();
+    private void setupFileActions() {
+        menuBar.itemLoad.addActionListener(e -> loadFile());
+        menuBar.itemSave.addActionListener(e -> saveFile());
+    }
+    
+    private void setupOptionActions() {
+        menuBar.itemIrq.addActionListener(e -> requestInterrupt(CPU.INT_IRQ, "IRQ"));
+        menuBar.itemFirq.addActionListener(e -> requestInterrupt(CPU.INT_FIRQ, "FIRQ"));
+        menuBar.itemNmi.addActionListener(e -> requestInterrupt(CPU.INT_NMI, "NMI"));
+        menuBar.itemBreakpoint.addActionListener(e -> toggleBreakpoint());
+        menuBar.itemRecord.addActionListener(e -> toggleRecording());
+        menuBar.itemCoverage.addActionListener(e -> toggleCoverage());
+        menuBar.itemDisplay.addActionListener(e -> showDisplay());
+    }
+    
+    // Options > Display: window on the framebuffer at $6000
+    private void showDisplay() {
+        if (displayWindow == null) {
+            displayWindow = new JFrame(String.format("Display ($%04X)", FrameBuffer.BASE));
+            displayWindow.add(new ViewDisplay(simulator.getFrameBuffer(), simulator));
+            displayWindow.pack();
+            displayWindow.setResizable(false);
+            displayWindow.setLocationRelativeTo(this);
+        }
+        displayWindow.setVisible(true);
+    }
+    
+    // Serial port over TCP on the loopback interface; each new client replaces the last
+    private void startSerialServer(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        Thread accept = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket client = server.accept();
+                    client.setTcpNoDelay(true);
+                    simulator.connectSerial(client.getInputStream(), client.getOutputStream());
+                } catch (IOException e) {
+                    System.err.println("Serial connection failed: " + e.getMessage());
+                }
+            }
+        }, "serial-accept");
+        accept.setDaemon(true);
+        accept.start();
+    }
+    
+    // The request is taken by the CPU at its next instruction (when the mask allows)
+    private void requestInterrupt(int type, String name) {
+        simulator.requestInterrupt(type);
+        if (!simulator.isRunning() || simulator.isPaused()) {
+            cpuView.setInstructionText(name + " PENDING");
+        }
+    }
+    
+    // Options > Start Recording logs every input from here on; Stop Recording saves the log
+    // as a .rec file (see Recording), cancelling the save keeps recording
+    private void toggleRecording() {
+        if (!simulator.isRecording()) {
+            simulator.startRecording();
+            menuBar.itemRecord.setText("Stop Recording...");
+            cpuView.setInstructionText("RECORDING INPUTS");
+            return;
+        }
+        selectFilter("rec");
+        saveFile();
+    }
+    
+    // Options > Start Coverage collects coverage from here on; Stop Coverage saves it as an
+    // HTML report or LCOV tracefile of the assembled program, cancelling keeps collecting
+    private void toggleCoverage() {
+        if (simulator.getCoverage() == null) {
+            simulator.setCoverage(new Coverage());
+            menuBar.itemCoverage.setText("Stop Coverage...");
+            cpuView.setInstructionText("COLLECTING COVERAGE");
+            return;
+        }
+        selectFilter("html");
+        saveFile();
+    }
+    
+    private void selectFilter(String extension) {
+        for (javax.swing.filechooser.FileFilter filter : fileChooser.getChoosableFileFilters()) {
+            if (filter instanceof FileNameExtensionFilter
+                    && ((FileNameExtensionFilter) filter).getExtensions()[0].equals(extension)) {
+                fileChooser.setFileFilter(filter);
+            }
+        }
+    }
+    
+    // Options > Toggle Breakpoint: ask for a hex address
+    private void toggleBreakpoint() {
+        String text = JOptionPane.showInputDialog(this,
+                "Breakpoint address (hex), optionally followed by\n\"if <condition>\" or \"trace <expr>, ...\":",
+                "Toggle Breakpoint", JOptionPane.QUESTION_MESSAGE);
+        if (text == null || text.trim().isEmpty()) {
+            return;
+        }
+        Breakpoint breakpoint;
+        try {
+            breakpoint = Breakpoint.parse(text);
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Toggle Breakpoint", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int address = breakpoint.address;
+        if (simulator.isBreakpoint(address) && breakpoint.isPlain()) {
+            simulator.setBreakpoint(address, false);
+            cpuView.setInstructionText(String.format("BREAKPOINT $%04X CLEARED", address));
+        } else {
+            simulator.setBreakpoint(breakpoint);
+            cpuView.setInstructionText((breakpoint.isTracepoint() ? "TRACEPOINT " : "BREAKPOINT ") + "$" + breakpoint + " SET");
+        }
+    }
+    
+    // File > Load: read on a worker thread, then update the UI
+    private void loadFile() {
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path path = fileChooser.getSelectedFile().toPath();
         Memory memory = simulator.getMemory();
-        
-        // Update CPU registers
-        cpuView.updateRegisters(cpu);
-        
-        // Update RAM view (first 256 bytes)
-        for (int i = 0; i < 256; i++) {
-            int value = memory.getRAM().read(i);
-            ramView.updateRow(i, value);
+        switch (extensionOf(path.toFile())) {
+            case "ram":
+                runFileTask("Loading RAM image", progress -> FileIO.loadImage(path, memory, simulator, 0x0000, 0x8000, progress),
+                        length -> memoryLoaded(length + " BYTES LOADED INTO RAM"));
+                break;
+            case "rom":
+                runFileTask("Loading ROM image", progress -> FileIO.loadImage(path, memory, simulator, 0x8000, 0x8000, progress),
+                        length -> memoryLoaded(length + " BYTES LOADED INTO ROM"));
+                break;
+            case "sav":
+                runFileTask("Loading save state", progress -> {
+                    SaveState state = SaveState.read(path);
+                    if (state.isDelta()) {
+                        throw new IOException(path.getFileName() + " is a delta save; load its full save first");
+                    }
+                    return state;
+                }, state -> {
+                    synchronized (simulator) {
+                        state.restore(simulator);
+                    }
+                    memoryLoaded("STATE LOADED");
+                });
+                break;
+            case "rec":
+                runFileTask("Loading recording", progress -> Recording.read(path), recording -> {
+                    stopRun();
+                    recording.replay(simulator);
+                    editorView.speedSelector.setSelectedItem("Unlimited"); // Replays run unthrottled
+                    memoryLoaded("REPLAY READY - " + recording.getInputCount() + " INPUTS");
+                });
+                break;
+            default:
+                runFileTask("Loading source", progress -> FileIO.readText(path, progress), text -> {
+                    editorView.setEditorText(text);
+                    cpuView.setInstructionText("SOURCE LOADED - " + path.getFileName());
+                });
+                break;
         }
-        
-        // Update ROM view (last 256 bytes to show reset vector)
-        for (int i = 0; i < 256; i++) {
-            int value = memory.getROM().read(32768 - 256 + i);
-            romView.updateRow(32768 - 256 + i, value);
+    }
+    
+    // File > Save: take a snapshot on the EDT (cheap copy), write it on a worker thread
+    private void saveFile() {
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        if (extensionOf(file).isEmpty()) {
+            String[] extensions = ((FileNameExtensionFilter) fileChooser.getFileFilter()).getExtensions();
+            file = new File(file.getPath() + "." + extensions[0]);
+        }
+        Path path = file.toPath();
+        Consumer<Object> saved = ignored -> cpuView.setInstructionText("SAVED - " + path.getFileName());
+        switch (extensionOf(file)) {
+            case "ram":
+            case "rom": {
+                byte[] data;
+                synchronized (simulator) {
+                    data = simulator.getMemory().dump(extensionOf(file).equals("ram") ? 0x0000 : 0x8000, 0x8000);
+                }
+                runFileTask("Saving memory image", progress -> {
+                    FileIO.writeImage(path, data, progress);
+                    return null;
+                }, saved);
+                break;
+            }
+            case "sav": {
+                SaveState state;
+                synchronized (simulator) {
+                    state = SaveState.capture(simulator);
+                }
+                runFileTask("Saving state", progress -> {
+                    state.write(path);
+                    return null;
+                }, saved);
+                break;
+            }
+            case "rec": {
+                Recording recording = simulator.stopRecording();
+                if (recording == null) {
+                    JOptionPane.showMessageDialog(this, "Nothing is being recorded (Options > Start Recording)",
+                            "Save", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                menuBar.itemRecord.setText("Start Recording");
+                runFileTask("Saving recording", progress -> {
+                    recording.write(path);
+                    return null;
+                }, saved);
+                break;
+            }
+            case "html":
+            case "info": {
+                Coverage coverage;
+                LinkedImage image;
+                synchronized (simulator) {
+                    coverage = simulator.getCoverage();
+                    image = simulator.getImage();
+                    if (coverage != null && image != null) {
+                        simulator.setCoverage(null);
+                    }
+                }
+                if (coverage == null || image == null) {
+                    JOptionPane.showMessageDialog(this, coverage == null
+                            ? "No coverage is being collected (Options > Start Coverage)"
+                            : "Assemble the program the coverage is for first",
+                            "Save", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                menuBar.itemCoverage.setText("Start Coverage");
+                // The editor holds the main source, which the image calls "main"
+                Map<String, String> sources = Map.of("main", editorView.getEditorText());
+                boolean html = extensionOf(file).equals("html");
+                runFileTask("Saving coverage", progress -> {
+                    if (html) {
+                        coverage.writeHtml(path, image, sources);
+                    } else {
+                        coverage.writeLcov(path, image);
+                    }
+                    return null;
+                }, saved);
+                break;
+            }
+            default: {
+                String text = editorView.getEditorText();
+                runFileTask("Saving source", progress -> {
+                    FileIO.writeText(path, text, progress);
+                    return null;
+                }, saved);
+                break;
+            }
         }
     }
+    
+    private interface FileTask<T> {
+        T run(IntConsumer progress) throws IOException;
+    }
+    
+    // Run a file transfer on a worker thread with a progress dialog; done runs on the EDT if it succeeds
+    private <T> void runFileTask(String title, FileTask<T> task, Consumer<T> done) {
+        ProgressMonitor monitor = new ProgressMonitor(this, title, null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        SwingWorker<T, Void> worker = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws IOException {
+                return task.run(this::setProgress);
+            }
+            
+            @Override
+            protected void done() {
+                monitor.close();
+                try {
+                    done.accept(get());
+                } catch (ExecutionException ex) {
+                    String error = ex.getCause().getMessage();
+                    JOptionPane.showMessageDialog(Main.this, error, title + " failed", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        worker.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+            }
+        });
+        worker.execute();
+    }
+    
+    private void memoryLoaded(String message) {
+        updateDisplay();
+        cpuView.setInstructionText(message);
+    }
+    
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+    
+    // Stop a background run, if any
+    private void stopRun() {
+        simulator.stop();
+        refreshTimer.stop();
+        editorView.btnRun.setText("Run All");
+    }
+    
+    // Called on the EDT when the background run halts or is stopped
+    private void runFinished() {
+        refreshTimer.stop();
+        editorView.btnRun.setText("Run All");
+        refreshRunningDisplay();
+        if (simulator.getCPU().halted) {
+            cpuView.setInstructionText("PROGRAM HALTED");
+        }
+    }
+    
+    // Called on the EDT when the background run paused itself at a breakpoint
+    private void breakpointHit() {
+        if (!simulator.isPaused()) {
+            return; // Already resumed or stopped
+        }
+        refreshTimer.stop();
+        editorView.btnRun.setText("Resume");
+        synchronized (simulator) {
+            updateDisplay();
+            cpuView.setInstructionText(String.format("BREAKPOINT $%04X", simulator.getCPU().regPC));
+        }
+    }
+    
+    // Sample the state of a running simulator
+    private void refreshRunningDisplay() {
+        synchronized (simulator) {
+            updateDisplay();
+            CPU cpu = simulator.getCPU();
+            if (!cpu.halted) {
+                cpuView.setInstructionText(simulator.getDisassembler().decode(cpu.regPC).toString());
+            }
+        }
+    }
+    
+    private void updateDisplay() {
+        synchronized (simulator) {
+            CPU cpu = simulator.getCPU();
+            
+            // Update only the CPU registers that changed
+            cpuView.updateRegisters(cpu, cpu.takeChangedRegisters());
+            
+            // Counters are plain fields kept by the run loop, just sampled here
+            boolean running = simulator.isRunning() && !simulator.isPaused();
+            cpuView.updatePerformance(cpu.instructions, cpu.cycles, simulator.getClockRate(), running);
+            
+            // Update only the memory bytes in pages written since the last update
+            if (simulator.getMemory().takeDirtyPages(dirtyPages)) {
+                ramView.sync(dirtyPages);
+                romView.sync(dirtyPages);
+            }
+        }
+        traceLines.drainTo(traceScratch);
+        cpuView.appendTrace(traceScratch);
+        traceScratch.clear();
+    }
 
     private JPanel createStyledPanel(String title) {
         JPanel panel = new JPanel(new BorderLayout());
@@ -163,7 +601,38 @@ public class Main extends JFrame {
         return panel;
     }
 
+    // Assembled images cached on disk with -Dm6809.assemblyCache=<directory>
+    // [-Dm6809.assemblyCacheBytes=<limit>, 64 MB by default]; null without the property
+    private static AssemblyCache openAssemblyCache() {
+        String directory = System.getProperty("m6809.assemblyCache");
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new AssemblyCache(Path.of(directory), Long.getLong("m6809.assemblyCacheBytes", 64L << 20));
+        } catch (IOException e) {
+            System.err.println("Assembly cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
     public static void main(String[] args) {
+        // Headless simulation service for other tools instead of the window:
+        // -Dm6809.servicePort=<port> [-Dm6809.servicePool=<simulators>] [-Dm6809.serviceMaxCycles=<cycles>]
+        Integer servicePort = Integer.getInteger("m6809.servicePort");
+        if (servicePort != null) {
+            SimulationService service = new SimulationService(servicePort,
+                    Integer.getInteger("m6809.servicePool", Runtime.getRuntime().availableProcessors()),
+                    Long.getLong("m6809.serviceMaxCycles", SimulationService.MAX_CYCLES));
+            service.setAssemblyCache(openAssemblyCache());
+            try {
+                service.start();
+                System.out.println("Simulation service on port " + service.getPort());
+            } catch (IOException e) {
+                System.err.println("Simulation service failed to start: " + e.getMessage());
+            }
+            return;
+        }
         SwingUtilities.invokeLater(Main::new);
     }
 }
\ No newline at end of file
@@ -1,13 +1,67 @@
 package program;
 
+import java.util.Arrays;
+
 public class Memory {
     private RAM ram;
     private ROM rom;
     
+    // Bumped on every change to a 256-byte page, so caches can tell when their data is stale
+    private final int[] pageVersions = new int[256];
+    
+    // Pages changed since the last UI sync (256-bit set)
+    private final long[] dirtyPages = new long[4];
+    
+    // Every write or load, used to tell whether a loop has side effects
+    private long writeCount;
+    
+    // Memory-mapped devices by page (null where plain RAM/ROM answers), and each one once
+    private final Device[] devices = new Device[256];
+    private Device[] attached = new Device[0];
+    
+    // XOR of hashOf(address, value) over the RAM and ROM bytes the CPU can see outside
+    // device pages (the RAM hidden behind a device is not part of it). Each write swaps one
+    // term out and one in, so it is always current. getStateHash adds each device's term.
+    private long stateHash;
+    
     public Memory() {
         ram = new RAM(32768); // 32KB RAM (0x0000 - 0x7FFF)
         rom = new ROM(32768); // 32KB ROM (0x8000 - 0xFFFF)
         initializeROM();
+        rehash();
+    }
+    
+    // Term of one byte in the state hash
+    static long hashOf(int address, int value) {
+        return mix((long) address << 8 | value);
+    }
+    
+    // SplitMix64 finalizer: every input bit affects every output bit
+    static long mix(long z) {
+        z *= 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    // Recompute the state hash from scratch (after changing RAM or ROM behind Memory's back)
+    public void rehash() {
+        long hash = 0;
+        for (int a = 0; a < 0x10000; a++) {
+            if (devices[a >> 8] == null) {
+                hash ^= hashOf(a, a < 0x8000 ? ram.memory[a] : rom.memory[a - 0x8000]);
+            }
+        }
+        stateHash = hash;
+    }
+    
+    // Hash of everything the CPU can see: RAM, ROM and the devices' own terms (Device.stateHash)
+    public long getStateHash() {
+        long hash = stateHash;
+        for (Device device : attached) {
+            hash ^= device.stateHash();
+        }
+        return hash;
     }
     
     // Initialize ROM with reset vector pointing to RAM start
@@ -18,9 +72,52 @@ public class Memory {
         rom.write(0x7FFF, 0x00); // Low byte of address 0x0000
     }
     
-    // Read from memory (checks RAM or ROM based on address)
+    // Map a device over the pages from start (page aligned) to start + size
+    public void attach(Device device, int start, int size) {
+        if ((start & 0xFF) != 0 || size <= 0 || start + size > 0x10000) {
+            throw new IllegalArgumentException(String.format("Device range must start on a page: $%04X, %d bytes", start, size));
+        }
+        int first = start >> 8;
+        int last = (start + size - 1) >> 8;
+        for (int page = first; page <= last; page++) {
+            if (devices[page] != null) {
+                throw new IllegalArgumentException(String.format("Page $%02X00 already has a device", page));
+            }
+        }
+        for (int page = first; page <= last; page++) {
+            devices[page] = device;
+            pageVersions[page]++;
+        }
+        if (!Arrays.asList(attached).contains(device)) {
+            attached = Arrays.copyOf(attached, attached.length + 1);
+            attached[attached.length - 1] = device;
+        }
+        rehash();
+    }
+    
+    public void detach(Device device) {
+        for (int page = 0; page < devices.length; page++) {
+            if (devices[page] == device) {
+                devices[page] = null;
+                pageVersions[page]++;
+            }
+        }
+        attached = Arrays.stream(attached).filter(other -> other != device).toArray(Device[]::new);
+        rehash();
+    }
+    
+    // Device mapped at address, null for RAM/ROM
+    public Device getDevice(int address) {
+        return devices[(address & 0xFFFF) >> 8];
+    }
+    
+    // Read from memory (checks devices, then RAM or ROM based on address)
     public int read(int address) {
         address = address & 0xFFFF; // Ensure 16-bit address
+        Device device = devices[address >> 8];
+        if (device != null) {
+            return device.read(address);
+        }
         if (address < 0x8000) {
             return ram.read(address);
         } else {
@@ -28,15 +125,101 @@ public class Memory {
         }
     }
     
-    // Write to memory (only RAM is writable)
+    // Read without device side effects (for views and dumps)
+    public int peek(int address) {
+        address = address & 0xFFFF;
+        Device device = devices[address >> 8];
+        if (device != null) {
+            return device.peek(address);
+        }
+        return address < 0x8000 ? ram.read(address) : rom.read(address - 0x8000);
+    }
+    
+    // Write to memory (only RAM and devices are writable)
     public void write(int address, int value) {
         address = address & 0xFFFF;
+        writeCount++;
+        Device device = devices[address >> 8];
+        if (device != null) {
+            device.write(address, value);
+            int page = address >> 8;
+            pageVersions[page]++;
+            dirtyPages[page >> 6] |= 1L << page;
+            return;
+        }
         if (address < 0x8000) {
-            ram.write(address, value);
+            value &= 0xFF;
+            stateHash ^= hashOf(address, ram.memory[address]) ^ hashOf(address, value);
+            ram.memory[address] = value;
+            int page = address >> 8;
+            pageVersions[page]++;
+            dirtyPages[page >> 6] |= 1L << page;
         }
         // ROM writes are ignored
     }
     
+    // Bulk load bytes starting at address (ROM is writable while loading an image).
+    // Bytes for device pages are skipped: an image can't hold device registers, and
+    // writing them would act on the device (a serial port would send them).
+    public void load(int address, byte[] data) {
+        writeCount++;
+        for (int i = 0; i < data.length; i++) {
+            int a = (address + i) & 0xFFFF;
+            if (devices[a >> 8] != null) {
+                continue;
+            }
+            if (a < 0x8000) {
+                stateHash ^= hashOf(a, ram.memory[a]) ^ hashOf(a, data[i] & 0xFF);
+                ram.memory[a] = data[i] & 0xFF;
+            } else {
+                stateHash ^= hashOf(a, rom.memory[a - 0x8000]) ^ hashOf(a, data[i] & 0xFF);
+                rom.memory[a - 0x8000] = data[i] & 0xFF;
+            }
+            pageVersions[a >> 8]++;
+            dirtyPages[a >> 14] |= 1L << (a >> 8);
+        }
+    }
+    
+    // Count a write made behind Memory's back (by a subclass that stores the byte itself),
+    // so loop detection, caches and the UI still see it
+    protected void noteWrite(int address) {
+        address &= 0xFFFF;
+        writeCount++;
+        int page = address >> 8;
+        pageVersions[page]++;
+        dirtyPages[page >> 6] |= 1L << page;
+    }
+    
+    public long getWriteCount() {
+        return writeCount;
+    }
+    
+    // Copy of length bytes starting at address (devices are peeked, not read)
+    public byte[] dump(int address, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) peek(address + i);
+        }
+        return data;
+    }
+    
+    // Copy the set of pages changed since the last call into out (4 longs) and clear it.
+    // Returns false if nothing changed.
+    public boolean takeDirtyPages(long[] out) {
+        boolean any = false;
+        for (int i = 0; i < dirtyPages.length; i++) {
+            out[i] = dirtyPages[i];
+            any |= dirtyPages[i] != 0;
+            dirtyPages[i] = 0;
+        }
+        return any;
+    }
+    
+    // Version of the page holding address
+    public int getPageVersion(int address) {
+        return pageVersions[(address & 0xFFFF) >> 8];
+    }
+    
     // Get RAM reference for UI updates
     public RAM getRAM() {
         return ram;
@@ -47,10 +230,20 @@ public class Memory {
         return rom;
     }
     
-    // Reset both RAM and ROM
+    // Reset RAM, ROM and devices
     public void reset() {
         ram.reset();
         rom.reset();
         initializeROM();
+        for (int page = 0; page < devices.length; page++) {
+            if (devices[page] != null && (page == 0 || devices[page - 1] != devices[page])) {
+                devices[page].reset();
+            }
+        }
+        for (int page = 0; page < pageVersions.length; page++) {
+            pageVersions[page]++;
+        }
+        Arrays.fill(dirtyPages, -1L);
+        rehash();
     }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package program;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tells the linker where each section goes in the 64K address space, and which ranges
+// belong to memory-mapped devices: a section placed over one of those is a link error,
+// since its bytes could never be loaded there.
+public class MemoryMap {
+
+    public static class Region {
+        public final String section;
+        public final int start;
+        public final int end; // Inclusive
+
+        public Region(String section, int start, int end) {
+            this.section = section;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final Map<String, Region> regions = new LinkedHashMap<>();
+    private final Map<String, Region> reserved = new LinkedHashMap<>(); // By device name
+
+    // Place a section in [start, end]
+    public void addRegion(String section, int start, int end) {
+        if (start < 0 || end > 0xFFFF || start > end) {
+            throw new IllegalArgumentException(String.format("Invalid region for %s: $%04X-$%04X", section, start, end));
+        }
+        for (Region other : regions.values()) {
+            if (start <= other.end && other.start <= end) {
+                throw new IllegalArgumentException("Region " + section + " overlaps region " + other.section);
+            }
+        }
+        regions.put(section.toUpperCase(), new Region(section.toUpperCase(), start, end));
+    }
+
+    // Keep code and data out of [start, end], which device answers
+    public void reserve(String device, int start, int end) {
+        if (start < 0 || end > 0xFFFF || start > end) {
+            throw new IllegalArgumentException(String.format("Invalid range for %s: $%04X-$%04X", device, start, end));
+        }
+        reserved.put(device.toUpperCase(), new Region(device.toUpperCase(), start, end));
+    }
+
+    // The reserved range overlapping [start, end], null if none
+    public Region findReserved(int start, int end) {
+        for (Region range : reserved.values()) {
+            if (start <= range.end && range.start <= end) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    public List<Region> getReserved() {
+        return new ArrayList<>(reserved.values());
+    }
+
+    public Region getRegion(String section) {
+        return regions.get(section.toUpperCase());
+    }
+
+    public List<Region> getRegions() {
+        return new ArrayList<>(regions.values());
+    }
+
+    // Same text format as parse(), also used as part of assembly cache keys
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Region region : regions.values()) {
+            text.append(String.format("%s $%04X $%04X%n", region.section, region.start, region.end));
+        }
+        for (Region range : reserved.values()) {
+            text.append(String.format("RESERVE %s $%04X $%04X%n", range.section, range.start, range.end));
+        }
+        return text.toString();
+    }
+
+    // CODE at the start of RAM, DATA in the upper half of RAM, ROM below the vectors,
+    // around the devices every Simulator attaches: video RAM at $6000-$6FFF and the
+    // serial port page at $C000-$C0FF
+    public static MemoryMap defaultMap() {
+        MemoryMap map = new MemoryMap();
+        map.addRegion("CODE", 0x0000, 0x3FFF);
+        map.addRegion("DATA", 0x4000, 0x5FFF);
+        map.addRegion("ROM", 0x8000, 0xFFEF);
+        reserveDevices(map);
+        return map;
+    }
+
+    // For a single source file (Assembler.assemble): CODE gets all the RAM below video
+    // memory, $0000-$5FFF, DATA the half of the RAM above it that the stack (from $8000
+    // down) leaves, and ROM the same range as defaultMap
+    public static MemoryMap singleFileMap() {
+        MemoryMap map = new MemoryMap();
+        map.addRegion("CODE", 0x0000, FrameBuffer.BASE - 1);
+        map.addRegion("DATA", FrameBuffer.BASE + FrameBuffer.SIZE, 0x77FF);
+        map.addRegion("ROM", 0x8000, 0xFFEF);
+        reserveDevices(map);
+        return map;
+    }
+
+    private static void reserveDevices(MemoryMap map) {
+        map.reserve("DISPLAY", FrameBuffer.BASE, FrameBuffer.BASE + FrameBuffer.SIZE - 1);
+        map.reserve("ACIA", ACIA.BASE, ACIA.BASE + ACIA.SIZE - 1);
+    }
+
+    // Parse lines of the form "SECTION $start $end" or "RESERVE device $start $end"
+    // (';' starts a comment)
+    public static MemoryMap parse(String text) {
+        MemoryMap map = new MemoryMap();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int commentIndex = line.indexOf(';');
+            if (commentIndex != -1) {
+                line = line.substring(0, commentIndex);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String[] parts = line.split("\\s+");
+            boolean reserve = parts.length == 4 && parts[0].equalsIgnoreCase("RESERVE");
+            if (parts.length != 3 && !reserve) {
+                throw new IllegalArgumentException("Memory map error at line " + (i + 1) + ": " + line);
+            }
+            try {
+                if (reserve) {
+                    map.reserve(parts[1], parseAddress(parts[2]), parseAddress(parts[3]));
+                } else {
+                    map.addRegion(parts[0], parseAddress(parts[1]), parseAddress(parts[2]));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Memory map error at line " + (i + 1) + ": " + line);
+            }
+        }
+        return map;
+    }
+
+    private static int parseAddress(String str) {
+        if (str.startsWith("$")) {
+            return Integer.parseInt(str.substring(1), 16);
+        }
+        return Integer.parseInt(str);
+    }
+}
@@ -0,0 +1,126 @@
+package program;
+
+import java.util.Arrays;
+import javax.swing.table.AbstractTableModel;
+
+// Table model that reads straight from Memory; cells are formatted only when the
+// table asks for them, which it does for visible rows only.
+// sync() compares just the pages Memory reports as dirty against the values last
+// shown, so the work per refresh follows what changed rather than the table size.
+public class MemoryTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Address", "Hex", "Binary"};
+
+    // Every byte value pre-formatted once, shared by all tables
+    private static final String[] HEX = new String[256];
+    private static final String[] BINARY = new String[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            HEX[i] = String.format("%02X", i);
+            BINARY[i] = String.format("%8s", Integer.toBinaryString(i)).replace(' ', '0');
+        }
+    }
+
+    private final Memory memory;
+    private final int start;
+    private final int size;
+
+    // Values as of the last sync, and the sync in which each row last changed
+    private final int[] shown;
+    private final int[] changeStamp;
+    private int stamp = 1;
+    private int[] highlighted = new int[0];
+
+    public MemoryTableModel(Memory memory, int start, int size) {
+        this.memory = memory;
+        this.start = start;
+        this.size = size;
+        this.shown = new int[size];
+        this.changeStamp = new int[size];
+        for (int row = 0; row < size; row++) {
+            shown[row] = memory.peek(start + row);
+        }
+    }
+
+    // Pick up changes in the given dirty pages (from Memory.takeDirtyPages) and
+    // repaint only the rows whose value changed, plus those no longer highlighted
+    public void sync(long[] dirtyPages) {
+        int[] changed = new int[16];
+        int changedCount = 0;
+        int nextStamp = stamp + 1;
+
+        for (int page = start >> 8; page <= (start + size - 1) >> 8; page++) {
+            if ((dirtyPages[page >> 6] & (1L << page)) == 0) {
+                continue;
+            }
+            int first = Math.max(page << 8, start);
+            int last = Math.min((page << 8) + 255, start + size - 1);
+            for (int address = first; address <= last; address++) {
+                int row = address - start;
+                int value = memory.peek(address);
+                if (value != shown[row]) {
+                    shown[row] = value;
+                    changeStamp[row] = nextStamp;
+                    if (changedCount == changed.length) {
+                        changed = Arrays.copyOf(changed, changedCount * 2);
+                    }
+                    changed[changedCount++] = row;
+                }
+            }
+        }
+        if (changedCount == 0) {
+            return; // Keep the previous highlights
+        }
+
+        stamp = nextStamp;
+        for (int row : highlighted) {
+            fireTableRowsUpdated(row, row);
+        }
+        highlighted = Arrays.copyOf(changed, changedCount);
+        for (int row : highlighted) {
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    // True if the row changed in the most recent sync that found changes
+    public boolean isRecentlyChanged(int row) {
+        return changeStamp[row] == stamp;
+    }
+
+    @Override
+    public int getRowCount() {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int address = start + row;
+        switch (column) {
+            case 0:
+                return String.format("$%04X", address);
+            case 1:
+                return HEX[memory.peek(address) & 0xFF];
+            default:
+                return BINARY[memory.peek(address) & 0xFF];
+        }
+    }
+
+    // Row showing address, or -1 if it is outside this table
+    public int rowOf(int address) {
+        int row = address - start;
+        return row >= 0 && row < size ? row : -1;
+    }
+
+    public int getStart() {
+        return start;
+    }
+}
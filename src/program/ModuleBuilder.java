@@ -0,0 +1,162 @@
+package program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Assembles a set of source files in parallel and links them into one image.
+// Modules whose source hash did not change are reused from memory or from their
+// object file instead of being reassembled.
+public class ModuleBuilder {
+
+    public static class SourceFile {
+        public final String name;
+        public final String text;
+
+        public SourceFile(String name, String text) {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    private final Map<String, ObjectModule> modules = new ConcurrentHashMap<>();
+    private final Path objectDirectory; // null keeps modules in memory only
+    private final Path includeDirectory;
+    private final ExecutorService executor;
+    private final AtomicInteger assembledCount = new AtomicInteger();
+    private LinkedImage image;
+    private String errorMessage;
+
+    public ModuleBuilder() {
+        this(null);
+    }
+
+    public ModuleBuilder(Path objectDirectory) {
+        this(objectDirectory, Paths.get(""));
+    }
+
+    public ModuleBuilder(Path objectDirectory, Path includeDirectory) {
+        this.objectDirectory = objectDirectory;
+        this.includeDirectory = includeDirectory;
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "assembler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Assemble every changed source and link all modules, in source order
+    public boolean build(List<SourceFile> sources, MemoryMap map) {
+        image = null;
+        errorMessage = null;
+
+        List<Future<ObjectModule>> pending = new ArrayList<>();
+        for (SourceFile source : sources) {
+            pending.add(executor.submit(() -> assemble(source)));
+        }
+
+        List<ObjectModule> linked = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                linked.add(pending.get(i).get());
+            } catch (ExecutionException e) {
+                errorMessage = sources.get(i).name + ": " + e.getCause().getMessage();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errorMessage = "Build interrupted";
+                return false;
+            }
+        }
+
+        Linker linker = new Linker();
+        if (!linker.link(linked, map)) {
+            errorMessage = linker.getErrorMessage();
+            return false;
+        }
+        image = linker.getImage();
+        return true;
+    }
+
+    // Runs on a worker thread; each task gets its own Assembler
+    private ObjectModule assemble(SourceFile source) throws Exception {
+        String hash = Assembler.hash(source.text);
+
+        ObjectModule module = modules.get(source.name);
+        if (module == null) {
+            module = readObjectFile(source.name);
+        }
+        if (module != null && module.getSourceHash().equals(hash) && Preprocessor.isUnchanged(module.getDependencies())) {
+            modules.put(source.name, module);
+            return module;
+        }
+
+        Assembler assembler = new Assembler();
+        assembler.setIncludeDirectory(includeDirectory);
+        module = assembler.assembleModule(source.name, source.text);
+        if (module == null) {
+            throw new Exception(assembler.getErrorMessage());
+        }
+        assembledCount.incrementAndGet();
+        modules.put(source.name, module);
+        writeObjectFile(module);
+        return module;
+    }
+
+    private ObjectModule readObjectFile(String name) {
+        if (objectDirectory == null) {
+            return null;
+        }
+        Path file = objectDirectory.resolve(name + ".obj");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return ObjectModule.readFrom(in);
+        } catch (IOException e) {
+            return null; // Unreadable object files are simply rebuilt
+        }
+    }
+
+    private void writeObjectFile(ObjectModule module) throws IOException {
+        if (objectDirectory == null) {
+            return;
+        }
+        Path file = objectDirectory.resolve(module.getName() + ".obj");
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            module.writeTo(out);
+        }
+    }
+
+    // Number of modules actually assembled (not reused) since creation
+    public int getAssembledCount() {
+        return assembledCount.get();
+    }
+
+    public LinkedImage getImage() {
+        return image;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
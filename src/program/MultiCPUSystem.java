@@ -0,0 +1,131 @@
+package program;
+
+import java.util.concurrent.Phaser;
+
+// Several 6809 cores, each with its own RAM and ROM plus one shared window, each
+// running on its own host thread. Cores run freely for a quantum of emulated cycles and
+// then wait at a Phaser until every core has reached the same emulated time, so no core
+// drifts more than one quantum ahead. Inside a quantum they only meet through the shared
+// window (see SharedMemory), so a smaller quantum means tighter timing and more waiting.
+// Idle loops are not fast-forwarded: a core polling shared memory can't tell when another
+// core will write it.
+public class MultiCPUSystem {
+    public static final long DEFAULT_QUANTUM = 1000; // Cycles
+
+    private final SharedMemory.Region shared;
+    private final SharedMemory[] memories;
+    private final CPU[] cores;
+    private final long quantum;
+    private volatile boolean stopRequested;
+    private Thread[] threads;
+
+    public MultiCPUSystem(int coreCount, int sharedStart, int sharedSize, long quantum) {
+        if (coreCount < 1 || quantum < 1) {
+            throw new IllegalArgumentException("Need at least one core and a positive quantum");
+        }
+        this.shared = new SharedMemory.Region(sharedStart, sharedSize);
+        this.quantum = quantum;
+        memories = new SharedMemory[coreCount];
+        cores = new CPU[coreCount];
+        for (int i = 0; i < coreCount; i++) {
+            memories[i] = new SharedMemory(shared);
+            cores[i] = new CPU(memories[i]);
+        }
+    }
+
+    // Load a core's program and reset it (not while running)
+    public void load(int core, LinkedImage image) {
+        image.loadInto(memories[core]);
+        cores[core].reset();
+    }
+
+    // Run every core on its own thread until all have halted or stop is called
+    public void start() {
+        start(Long.MAX_VALUE);
+    }
+
+    // Same, but each core also stops once it reaches the limit cycle
+    public void start(long limit) {
+        stop();
+        stopRequested = false;
+        Phaser phaser = new Phaser(cores.length);
+        threads = new Thread[cores.length];
+        for (int i = 0; i < cores.length; i++) {
+            CPU cpu = cores[i];
+            threads[i] = new Thread(() -> runCore(cpu, phaser, limit), "cpu-" + i);
+            threads[i].setDaemon(true);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    private void runCore(CPU cpu, Phaser phaser, long limit) {
+        try {
+            long end = cpu.cycles;
+            while (!stopRequested && !cpu.halted && end < limit) {
+                end += Math.min(quantum, limit - end);
+                while (!cpu.halted && cpu.cycles < end) {
+                    cpu.execute(end);
+                }
+                if (!cpu.halted) {
+                    phaser.arriveAndAwaitAdvance();
+                }
+            }
+        } finally {
+            // A halted or stopped core no longer holds the others back
+            phaser.arriveAndDeregister();
+        }
+    }
+
+    // Wait until every core has halted
+    public void join() throws InterruptedException {
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    // Stop at the next quantum boundary and wait for the threads
+    public void stop() {
+        stopRequested = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        if (threads != null) {
+            for (Thread thread : threads) {
+                if (thread.isAlive()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Core state is only stable while not running (after join or stop)
+    public int getCoreCount() {
+        return cores.length;
+    }
+
+    public CPU getCPU(int core) {
+        return cores[core];
+    }
+
+    public SharedMemory getMemory(int core) {
+        return memories[core];
+    }
+
+    public SharedMemory.Region getSharedRegion() {
+        return shared;
+    }
+
+    public long getQuantum() {
+        return quantum;
+    }
+}
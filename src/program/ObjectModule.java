@@ -0,0 +1,267 @@
+package program;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Relocatable output of assembling one source file.
+// Code is kept per section at offset 0; the linker decides the final addresses
+// and patches every symbol reference recorded as a fixup.
+public class ObjectModule {
+    public static final String DEFAULT_SECTION = "CODE";
+
+    // Fixup kinds
+    public static final int FIXUP_ABS16 = 0; // 16-bit absolute address (high byte first)
+    public static final int FIXUP_REL8 = 1;  // 8-bit signed branch offset
+
+    // Object file header
+    private static final int MAGIC = 0x36383039; // "6809"
+    private static final int VERSION = 3;
+
+    // A named block of code placed as a unit by the linker
+    public static class Section {
+        public final String name;
+        private byte[] code = new byte[64];
+        private int size;
+
+        public Section(String name) {
+            this.name = name;
+        }
+
+        // Append one byte
+        public void emit(int value) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = (byte) value;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // Copy of the section bytes
+        public byte[] getCode() {
+            return Arrays.copyOf(code, size);
+        }
+    }
+
+    // A label defined in this module
+    public static class Symbol {
+        public final String name;
+        public final String section;
+        public final int offset;
+
+        public Symbol(String name, String section, int offset) {
+            this.name = name;
+            this.section = section;
+            this.offset = offset;
+        }
+    }
+
+    // A place in a section that must be patched with a symbol's address
+    public static class Fixup {
+        public final String section;
+        public final int offset;
+        public final int kind;
+        public final String symbol;
+
+        public Fixup(String section, int offset, int kind, String symbol) {
+            this.section = section;
+            this.offset = offset;
+            this.kind = kind;
+            this.symbol = symbol;
+        }
+    }
+
+    // Source line an instruction at a section offset was assembled from
+    public static class LineRecord {
+        public final String section;
+        public final int offset;
+        public final String file; // null for the module's own source
+        public final int line;
+
+        public LineRecord(String section, int offset, String file, int line) {
+            this.section = section;
+            this.offset = offset;
+            this.file = file;
+            this.line = line;
+        }
+    }
+
+    private final String name;
+    private final String sourceHash;
+    private final Map<String, Section> sections = new LinkedHashMap<>();
+    private final Map<String, Symbol> symbols = new LinkedHashMap<>();
+    private final Set<String> exports = new LinkedHashSet<>();
+    private final List<Fixup> fixups = new ArrayList<>();
+    private final List<LineRecord> lines = new ArrayList<>();
+    private final Map<String, Long> dependencies = new LinkedHashMap<>(); // Include file -> modification time
+
+    public ObjectModule(String name, String sourceHash) {
+        this.name = name;
+        this.sourceHash = sourceHash;
+    }
+
+    // Get a section, creating it on first use
+    public Section getSection(String sectionName) {
+        return sections.computeIfAbsent(sectionName, Section::new);
+    }
+
+    public void defineSymbol(String symbolName, String section, int offset) throws Exception {
+        if (symbols.containsKey(symbolName)) {
+            throw new Exception("Duplicate label " + symbolName);
+        }
+        symbols.put(symbolName, new Symbol(symbolName, section, offset));
+    }
+
+    public void exportSymbol(String symbolName) {
+        exports.add(symbolName);
+    }
+
+    public void addFixup(String section, int offset, int kind, String symbol) {
+        fixups.add(new Fixup(section, offset, kind, symbol));
+    }
+
+    public void addLine(String section, int offset, String file, int line) {
+        lines.add(new LineRecord(section, offset, file, line));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    public List<Section> getSections() {
+        return new ArrayList<>(sections.values());
+    }
+
+    public Map<String, Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public Set<String> getExports() {
+        return exports;
+    }
+
+    public List<Fixup> getFixups() {
+        return fixups;
+    }
+
+    public Map<String, Long> getDependencies() {
+        return dependencies;
+    }
+
+    public List<LineRecord> getLines() {
+        return lines;
+    }
+
+    // Write the module in binary object format
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(name);
+        out.writeUTF(sourceHash);
+
+        out.writeInt(sections.size());
+        for (Section section : sections.values()) {
+            out.writeUTF(section.name);
+            out.writeInt(section.size);
+            out.write(section.code, 0, section.size);
+        }
+
+        out.writeInt(symbols.size());
+        for (Symbol symbol : symbols.values()) {
+            out.writeUTF(symbol.name);
+            out.writeUTF(symbol.section);
+            out.writeInt(symbol.offset);
+        }
+
+        out.writeInt(exports.size());
+        for (String export : exports) {
+            out.writeUTF(export);
+        }
+
+        out.writeInt(fixups.size());
+        for (Fixup fixup : fixups) {
+            out.writeUTF(fixup.section);
+            out.writeInt(fixup.offset);
+            out.writeByte(fixup.kind);
+            out.writeUTF(fixup.symbol);
+        }
+
+        out.writeInt(dependencies.size());
+        for (Map.Entry<String, Long> dependency : dependencies.entrySet()) {
+            out.writeUTF(dependency.getKey());
+            out.writeLong(dependency.getValue());
+        }
+
+        out.writeInt(lines.size());
+        for (LineRecord line : lines) {
+            out.writeUTF(line.section);
+            out.writeInt(line.offset);
+            out.writeUTF(line.file != null ? line.file : "");
+            out.writeInt(line.line);
+        }
+    }
+
+    // Read a module written by writeTo
+    public static ObjectModule readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a 6809 object module");
+        }
+        ObjectModule module = new ObjectModule(in.readUTF(), in.readUTF());
+
+        int sectionCount = in.readInt();
+        for (int i = 0; i < sectionCount; i++) {
+            Section section = module.getSection(in.readUTF());
+            int size = in.readInt();
+            section.code = new byte[Math.max(size, 1)];
+            in.readFully(section.code, 0, size);
+            section.size = size;
+        }
+
+        int symbolCount = in.readInt();
+        for (int i = 0; i < symbolCount; i++) {
+            Symbol symbol = new Symbol(in.readUTF(), in.readUTF(), in.readInt());
+            module.symbols.put(symbol.name, symbol);
+        }
+
+        int exportCount = in.readInt();
+        for (int i = 0; i < exportCount; i++) {
+            module.exports.add(in.readUTF());
+        }
+
+        int fixupCount = in.readInt();
+        for (int i = 0; i < fixupCount; i++) {
+            String section = in.readUTF();
+            int offset = in.readInt();
+            int kind = in.readByte();
+            module.addFixup(section, offset, kind, in.readUTF());
+        }
+
+        int dependencyCount = in.readInt();
+        for (int i = 0; i < dependencyCount; i++) {
+            module.dependencies.put(in.readUTF(), in.readLong());
+        }
+
+        int lineCount = in.readInt();
+        for (int i = 0; i < lineCount; i++) {
+            String section = in.readUTF();
+            int offset = in.readInt();
+            String file = in.readUTF();
+            module.addLine(section, offset, file.isEmpty() ? null : file, in.readInt());
+        }
+        return module;
+    }
+}
@@ -0,0 +1,391 @@
+package program;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Expands INCLUDE, MACRO/ENDM and IF/IFDEF/IFNDEF/ELSE/ENDIF before assembly.
+//
+//   INCLUDE "defs.inc"
+//   DEFINE DEBUG 1
+//   MACRO STORE2 value,addr
+//       LDA #\value
+//       STA \addr
+//   ENDM
+//   IF DEBUG == 1
+//       STORE2 $05,$20
+//   ENDIF
+//
+// \@ inside a macro body expands to a suffix unique to each expansion, for local labels.
+// Include files are read and tokenized once per path and modification time, and shared
+// by every Preprocessor, so a header included by many modules is only parsed once.
+public class Preprocessor {
+    private static final int MAX_DEPTH = 32;
+
+    // One line of expanded source and where it came from
+    public static class SourceLine {
+        public final String text;
+        public final String file; // null for the main source
+        public final int line;
+
+        public SourceLine(String text, String file, int line) {
+            this.text = text;
+            this.file = file;
+            this.line = line;
+        }
+
+        // "line 12" or "defs.inc line 12", for error messages
+        public String location() {
+            return file == null ? "line " + line : file + " line " + line;
+        }
+    }
+
+    // A tokenized source line
+    private static class Line {
+        final int number;
+        final String text;
+        final String label;   // null if none
+        final String keyword; // First token after the label, upper case ("" if none)
+        final String rest;    // Everything after the keyword
+
+        Line(int number, String text) {
+            this.number = number;
+            this.text = text;
+
+            String code = text;
+            int commentIndex = code.indexOf(';');
+            if (commentIndex != -1) {
+                code = code.substring(0, commentIndex);
+            }
+            code = code.trim();
+
+            String foundLabel = null;
+            int colonIndex = code.indexOf(':');
+            if (colonIndex > 0 && code.substring(0, colonIndex).matches("[A-Za-z_][A-Za-z0-9_]*")) {
+                foundLabel = code.substring(0, colonIndex);
+                code = code.substring(colonIndex + 1).trim();
+            }
+            this.label = foundLabel;
+
+            String[] parts = code.split("\\s+", 2);
+            this.keyword = parts[0].toUpperCase();
+            this.rest = parts.length > 1 ? parts[1].trim() : "";
+        }
+    }
+
+    private static class Macro {
+        final List<String> params;
+        final List<Line> body;
+
+        Macro(List<String> params, List<Line> body) {
+            this.params = params;
+            this.body = body;
+        }
+    }
+
+    // An include file as it was when last read
+    private static class CachedFile {
+        final FileTime modified;
+        final List<Line> lines;
+        final Map<Integer, Macro> macros = new ConcurrentHashMap<>(); // MACRO line index -> parsed macro
+
+        CachedFile(FileTime modified, List<Line> lines) {
+            this.modified = modified;
+            this.lines = lines;
+        }
+    }
+
+    // Conditional assembly state for one IF ... ENDIF block
+    private static class Condition {
+        final boolean parentActive;
+        boolean taken;
+        boolean active;
+
+        Condition(boolean parentActive, boolean value) {
+            this.parentActive = parentActive;
+            this.taken = value;
+            this.active = parentActive && value;
+        }
+    }
+
+    private static final Map<Path, CachedFile> fileCache = new ConcurrentHashMap<>();
+    private static final AtomicInteger fileReads = new AtomicInteger();
+
+    private final Path includeDirectory;
+    private final Map<String, String> defines = new HashMap<>();
+    private final Map<String, Macro> macros = new HashMap<>();
+    private final Map<String, Long> dependencies = new LinkedHashMap<>();
+    private List<SourceLine> output;
+    private int expansionCount;
+    private String errorMessage;
+
+    public Preprocessor(Path includeDirectory, Map<String, String> predefined) {
+        this.includeDirectory = includeDirectory;
+        this.defines.putAll(predefined);
+    }
+
+    // Expand the source, or return null and set the error message
+    public List<SourceLine> process(String sourceCode) {
+        output = new ArrayList<>();
+        errorMessage = null;
+        try {
+            processLines(tokenize(sourceCode), null, null, -1, 0);
+        } catch (Exception e) {
+            errorMessage = e.getMessage();
+            return null;
+        }
+        return output;
+    }
+
+    // Include files read, with their modification times
+    public Map<String, Long> getDependencies() {
+        return dependencies;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    // Number of include files actually read from disk by all preprocessors
+    public static int getFileReads() {
+        return fileReads.get();
+    }
+
+    // True if none of the recorded include files changed since they were read
+    public static boolean isUnchanged(Map<String, Long> dependencies) {
+        for (Map.Entry<String, Long> dependency : dependencies.entrySet()) {
+            try {
+                if (Files.getLastModifiedTime(Path.of(dependency.getKey())).toMillis() != dependency.getValue()) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Line> tokenize(String text) {
+        String[] rawLines = text.split("\n");
+        List<Line> lines = new ArrayList<>(rawLines.length);
+        for (int i = 0; i < rawLines.length; i++) {
+            lines.add(new Line(i + 1, rawLines[i]));
+        }
+        return lines;
+    }
+
+    // file and cached are null for the main source; siteLine >= 0 attributes all output to a macro call
+    private void processLines(List<Line> lines, String file, CachedFile cached, int siteLine, int depth) throws Exception {
+        if (depth > MAX_DEPTH) {
+            throw new Exception("Error: INCLUDE or macro nesting too deep");
+        }
+        Deque<Condition> conditions = new ArrayDeque<>();
+        boolean active = true;
+
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            int number = siteLine >= 0 ? siteLine : line.number;
+            String where = file == null ? "line " + number : file + " line " + number;
+
+            switch (line.keyword) {
+                case "IF":
+                case "IFDEF":
+                case "IFNDEF": {
+                    boolean value = active && evaluate(line.keyword, line.rest, where);
+                    conditions.push(new Condition(active, value));
+                    active = conditions.peek().active;
+                    continue;
+                }
+                case "ELSE": {
+                    Condition condition = conditions.peek();
+                    if (condition == null) {
+                        throw new Exception("Error: ELSE without IF at " + where);
+                    }
+                    condition.active = condition.parentActive && !condition.taken;
+                    condition.taken = true;
+                    active = condition.active;
+                    continue;
+                }
+                case "ENDIF": {
+                    if (conditions.isEmpty()) {
+                        throw new Exception("Error: ENDIF without IF at " + where);
+                    }
+                    active = conditions.pop().parentActive;
+                    continue;
+                }
+                default:
+                    break;
+            }
+            if (!active) {
+                continue;
+            }
+
+            switch (line.keyword) {
+                case "MACRO": {
+                    String[] header = line.rest.split("\\s+", 2);
+                    if (header[0].isEmpty()) {
+                        throw new Exception("Error: MACRO without a name at " + where);
+                    }
+                    int end = findEndm(lines, i, where);
+                    Macro macro = cached != null ? cached.macros.get(i) : null;
+                    if (macro == null) {
+                        macro = parseMacro(header.length > 1 ? header[1] : "", lines.subList(i + 1, end));
+                        if (cached != null) {
+                            cached.macros.put(i, macro);
+                        }
+                    }
+                    macros.put(header[0].toUpperCase(), macro);
+                    i = end;
+                    continue;
+                }
+                case "ENDM":
+                    throw new Exception("Error: ENDM without MACRO at " + where);
+                case "INCLUDE": {
+                    String name = line.rest.replace("\"", "").trim();
+                    Path path = includeDirectory.resolve(name).toAbsolutePath().normalize();
+                    CachedFile include = load(path, where);
+                    processLines(include.lines, name, include, -1, depth + 1);
+                    continue;
+                }
+                case "DEFINE": {
+                    String[] parts = line.rest.split("\\s+", 2);
+                    if (parts[0].isEmpty()) {
+                        throw new Exception("Error: DEFINE without a name at " + where);
+                    }
+                    defines.put(parts[0].toUpperCase(), parts.length > 1 ? parts[1] : "1");
+                    continue;
+                }
+                default:
+                    break;
+            }
+
+            Macro macro = macros.get(line.keyword);
+            if (macro != null) {
+                if (line.label != null) {
+                    output.add(new SourceLine(line.label + ":", file, number));
+                }
+                processLines(expand(macro, line.rest, where), file, null, number, depth + 1);
+                continue;
+            }
+
+            output.add(new SourceLine(line.text, file, number));
+        }
+
+        if (!conditions.isEmpty()) {
+            throw new Exception("Error: IF without ENDIF" + (file == null ? "" : " in " + file));
+        }
+    }
+
+    private int findEndm(List<Line> lines, int start, String where) throws Exception {
+        for (int j = start + 1; j < lines.size(); j++) {
+            if (lines.get(j).keyword.equals("ENDM")) {
+                return j;
+            }
+            if (lines.get(j).keyword.equals("MACRO")) {
+                throw new Exception("Error: nested MACRO at " + where);
+            }
+        }
+        throw new Exception("Error: MACRO without ENDM at " + where);
+    }
+
+    private Macro parseMacro(String paramList, List<Line> body) {
+        List<String> params = new ArrayList<>();
+        for (String param : paramList.split(",")) {
+            if (!param.trim().isEmpty()) {
+                params.add(param.trim());
+            }
+        }
+        // Longest names first so \value is not replaced as \val + "ue"
+        params.sort((a, b) -> b.length() - a.length());
+        return new Macro(params, new ArrayList<>(body));
+    }
+
+    private List<Line> expand(Macro macro, String argList, String where) throws Exception {
+        List<String> args = argList.isEmpty() ? new ArrayList<>() : Arrays.asList(argList.split(","));
+        if (args.size() > macro.params.size()) {
+            throw new Exception("Error: too many macro arguments at " + where);
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int p = 0; p < macro.params.size(); p++) {
+            values.put(macro.params.get(p), p < args.size() ? args.get(p).trim() : "");
+        }
+        String unique = "_" + (++expansionCount);
+
+        List<Line> expanded = new ArrayList<>(macro.body.size());
+        for (Line bodyLine : macro.body) {
+            String text = bodyLine.text.replace("\\@", unique);
+            for (String param : macro.params) {
+                text = text.replace("\\" + param, values.get(param));
+            }
+            expanded.add(new Line(bodyLine.number, text));
+        }
+        return expanded;
+    }
+
+    // IFDEF NAME, IFNDEF NAME, IF NAME, IF NAME == value, IF NAME != value
+    private boolean evaluate(String keyword, String expr, String where) throws Exception {
+        if (keyword.equals("IFDEF")) {
+            return defines.containsKey(expr.toUpperCase());
+        }
+        if (keyword.equals("IFNDEF")) {
+            return !defines.containsKey(expr.toUpperCase());
+        }
+
+        String[] parts = expr.split("\\s*(==|!=)\\s*", 2);
+        if (parts.length == 1) {
+            return valueOf(parts[0], where) != 0;
+        }
+        boolean equal = valueOf(parts[0], where) == valueOf(parts[1], where);
+        return expr.contains("==") ? equal : !equal;
+    }
+
+    private int valueOf(String token, String where) throws Exception {
+        token = token.trim();
+        String defined = defines.get(token.toUpperCase());
+        if (defined != null) {
+            token = defined.trim();
+        }
+        try {
+            return token.startsWith("$") ? Integer.parseInt(token.substring(1), 16) : Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new Exception("Error: cannot evaluate '" + token + "' at " + where);
+        }
+    }
+
+    // Read and tokenize an include file unless the cached copy is still current
+    private CachedFile load(Path path, String where) throws Exception {
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            throw new Exception("Error: cannot read include file " + path.getFileName() + " at " + where);
+        }
+        dependencies.put(path.toString(), modified.toMillis());
+
+        CachedFile cached = fileCache.get(path);
+        if (cached != null && cached.modified.equals(modified)) {
+            return cached;
+        }
+        try {
+            String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).replace("\r", "");
+            cached = new CachedFile(modified, tokenize(text));
+        } catch (IOException e) {
+            throw new Exception("Error: cannot read include file " + path.getFileName() + " at " + where);
+        }
+        fileReads.incrementAndGet();
+        fileCache.put(path, cached);
+        return cached;
+    }
+}
@@ -0,0 +1,353 @@
+package program;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Deterministic record and replay. From a given state the machine only depends on what the
+// host feeds it, so a recording is a full SaveState taken when it starts plus a log of those
+// inputs, each stamped with the cycle it arrived at:
+//   interrupt requests (the IRQ/FIRQ/NMI menu items, Simulator.requestInterrupt),
+//   bytes the ACIA latched from the host and changes of its TDRE (room in the host ring),
+//   clock rate changes and host time samples (how throttling paced the run).
+// A replay restores the state and schedules each input as a scheduler event at its cycle,
+// so the run repeats instruction for instruction; it runs unthrottled, and the rate and host
+// time records are only kept to map cycles back to wall time (hostNanosAt). Superinstructions
+// are turned off for the replay so every boundary an input arrived at is a dispatch boundary.
+// Resets, loads and memory or register edits made while recording are not in the log.
+// A record is a kind byte, the cycles since the previous record (varint) and its value, so
+// most inputs take three or four bytes.
+// File format (version 2, big endian): magic, version, end cycle, end instruction count,
+// end state hash, save state length + save state, log length + log.
+public class Recording {
+    private static final int MAGIC = 0x52454331; // "REC1"
+    private static final int VERSION = 2;
+    private static final long HOST_TIME_INTERVAL = 100_000_000; // ns between host time samples
+
+    // Record kinds
+    private static final int END = 0;
+    private static final int INTERRUPT = 1;
+    private static final int SERIAL_INPUT = 2;
+    private static final int TRANSMIT_READY = 3;
+    private static final int CLOCK_RATE = 4;
+    private static final int HOST_TIME = 5;
+
+    private final SaveState start;
+    private ByteBuffer log = ByteBuffer.allocate(4096);
+    private long lastCycle;
+    private long lastNanos;
+    private int inputs;
+    private boolean finished;
+    private long endCycle;
+    private long endInstructions;
+    private long endHash;
+
+    // Begin a recording from start (Simulator.startRecording); nanos is the host time now
+    Recording(SaveState start, long nanos) {
+        this.start = start;
+        this.lastCycle = start.getCycles();
+        this.lastNanos = nanos;
+    }
+
+    private Recording(SaveState start) {
+        this.start = start;
+    }
+
+    // Inputs, in cycle order; called on the CPU thread or under the simulator's lock
+
+    void interrupt(long cycle, int type) {
+        append(INTERRUPT, cycle, 1).put((byte) type);
+        inputs++;
+    }
+
+    void serialInput(long cycle, int value) {
+        append(SERIAL_INPUT, cycle, 1).put((byte) value);
+        inputs++;
+    }
+
+    void transmitReady(long cycle, boolean ready) {
+        append(TRANSMIT_READY, cycle, 1).put((byte) (ready ? 1 : 0));
+        inputs++;
+    }
+
+    void clockRate(long cycle, long rate) {
+        putVarLong(append(CLOCK_RATE, cycle, 10), rate);
+    }
+
+    // Sampled at most every HOST_TIME_INTERVAL
+    void hostTime(long cycle, long nanos) {
+        if (nanos - lastNanos >= HOST_TIME_INTERVAL) {
+            putVarLong(append(HOST_TIME, cycle, 10), nanos - lastNanos);
+            lastNanos = nanos;
+        }
+    }
+
+    // The machine reached cycle after instructions, in the state hashing to hash
+    void finish(long cycle, long instructions, long hash) {
+        append(END, cycle, 0);
+        finished = true;
+        endCycle = cycle;
+        endInstructions = instructions;
+        endHash = hash;
+    }
+
+    // Start a record, leaving room for a value of up to size bytes
+    private ByteBuffer append(int kind, long cycle, int size) {
+        if (finished) {
+            throw new IllegalStateException("Recording has ended");
+        }
+        if (log.remaining() < 1 + 10 + size) {
+            ByteBuffer larger = ByteBuffer.allocate(log.capacity() * 2);
+            log.flip();
+            log = larger.put(log);
+        }
+        log.put((byte) kind);
+        putVarLong(log, cycle - lastCycle);
+        lastCycle = cycle;
+        return log;
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    // The log so far, positioned at its first record
+    private ByteBuffer records() {
+        ByteBuffer records = log.duplicate();
+        records.flip();
+        return records;
+    }
+
+    public SaveState getStart() {
+        return start;
+    }
+
+    public long getEndCycle() {
+        return endCycle;
+    }
+
+    public long getEndInstructions() {
+        return endInstructions;
+    }
+
+    public long getEndHash() {
+        return endHash;
+    }
+
+    // Number of recorded inputs (interrupts, serial bytes and TDRE changes)
+    public int getInputCount() {
+        return inputs;
+    }
+
+    // Host time at cycle, in ns since the recording started, interpolated between samples
+    // at the recorded clock rate (unthrottled stretches only have the samples)
+    public long hostNanosAt(long cycle) {
+        ByteBuffer records = records();
+        long at = start.getCycles();
+        long sampledAt = at;
+        long nanos = 0;
+        long rate = 0;
+        while (records.hasRemaining()) {
+            int kind = records.get();
+            long next = at + getVarLong(records);
+            if (next > cycle || kind == END) {
+                break;
+            }
+            at = next;
+            if (kind == CLOCK_RATE) {
+                rate = getVarLong(records);
+            } else if (kind == HOST_TIME) {
+                nanos += getVarLong(records);
+                sampledAt = at;
+            } else {
+                records.get();
+            }
+        }
+        // Nothing is known past the last sample but the rate
+        return rate == 0 ? nanos : nanos + (cycle - sampledAt) * 1_000_000_000L / rate;
+    }
+
+    // Put simulator back in the starting state and queue the inputs to arrive at their
+    // cycles. Running it from there (unthrottled) repeats the recorded run; at the cycle the
+    // recording ended, the serial port takes host input again and superinstructions return.
+    public void replay(Simulator simulator) {
+        synchronized (simulator) {
+            simulator.setClockRate(0);
+            start.restore(simulator);
+            simulator.getCPU().setFusionEnabled(false);
+            simulator.getACIA().setReplaying(true);
+            new Player(simulator, records(), start.getCycles()).next();
+        }
+    }
+
+    // Replay and run to the point the recording ended at; true if the machine is then in the
+    // recorded state (by state hash). Zero-cycle instructions (END) at the last cycle are
+    // caught up one at a time by instruction count.
+    public boolean replayToEnd(Simulator simulator) {
+        if (!finished) {
+            throw new IllegalStateException("Recording has not ended");
+        }
+        synchronized (simulator) {
+            replay(simulator);
+            simulator.runUntil(endCycle);
+            CPU cpu = simulator.getCPU();
+            while (!cpu.halted && cpu.instructions < endInstructions) {
+                cpu.execute(false);
+                simulator.getScheduler().runDue(cpu.cycles);
+            }
+            return simulator.getStateHash() == endHash;
+        }
+    }
+
+    // Feeds the log back to a simulator, one scheduler event per input
+    private static class Player {
+        private final Simulator simulator;
+        private final CPU cpu;
+        private final ACIA acia;
+        private final Scheduler scheduler;
+        private final ByteBuffer records;
+        private long cycle;
+
+        Player(Simulator simulator, ByteBuffer records, long cycle) {
+            this.simulator = simulator;
+            this.cpu = simulator.getCPU();
+            this.acia = simulator.getACIA();
+            this.scheduler = simulator.getScheduler();
+            this.records = records;
+            this.cycle = cycle;
+        }
+
+        // Schedule the next input, which schedules the one after when it fires
+        void next() {
+            while (records.hasRemaining()) {
+                int kind = records.get();
+                cycle += getVarLong(records);
+                switch (kind) {
+                    case INTERRUPT: {
+                        int type = records.get();
+                        schedule(() -> cpu.requestInterrupt(type));
+                        return;
+                    }
+                    case SERIAL_INPUT: {
+                        int value = records.get() & 0xFF;
+                        schedule(() -> acia.receive(value));
+                        return;
+                    }
+                    case TRANSMIT_READY: {
+                        boolean ready = records.get() != 0;
+                        schedule(() -> acia.setTransmitReady(ready));
+                        return;
+                    }
+                    case CLOCK_RATE:
+                    case HOST_TIME:
+                        getVarLong(records); // Pacing only, a replay runs unthrottled
+                        break;
+                    default:
+                        break;
+                }
+            }
+            scheduler.schedule(cycle, "replay", simulator::endReplay);
+        }
+
+        private void schedule(Runnable input) {
+            scheduler.schedule(cycle, "replay", () -> {
+                input.run();
+                next();
+            });
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        if (!finished) {
+            throw new IllegalStateException("Recording has not ended");
+        }
+        ByteBuffer state = start.encode();
+        ByteBuffer records = records();
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 8 + 8 + 8 + 4);
+        header.putInt(MAGIC).putInt(VERSION).putLong(endCycle).putLong(endInstructions).putLong(endHash)
+                .putInt(state.remaining());
+        header.flip();
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(records.remaining());
+        length.flip();
+        ByteBuffer[] parts = { header, state, length, records };
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (records.hasRemaining()) {
+                channel.write(parts);
+            }
+        }
+    }
+
+    public static Recording read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Recording too large: " + path.getFileName());
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a 6809 recording: " + path.getFileName());
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version + ": " + path.getFileName());
+        }
+        try {
+            long endCycle = buffer.getLong();
+            long endInstructions = buffer.getLong();
+            long endHash = buffer.getLong();
+            int stateLength = buffer.getInt();
+            ByteBuffer state = buffer.slice();
+            state.limit(stateLength);
+            buffer.position(buffer.position() + stateLength);
+            Recording recording = new Recording(SaveState.decode(state, path.getFileName().toString()));
+            int length = buffer.getInt();
+            recording.log = ByteBuffer.allocate(length).put(buffer.array(), buffer.position(), length);
+            recording.finished = true;
+            recording.endCycle = endCycle;
+            recording.endInstructions = endInstructions;
+            recording.endHash = endHash;
+            recording.countInputs();
+            return recording;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated recording: " + path.getFileName());
+        }
+    }
+
+    private void countInputs() {
+        ByteBuffer records = records();
+        while (records.hasRemaining()) {
+            int kind = records.get();
+            getVarLong(records);
+            if (kind == CLOCK_RATE || kind == HOST_TIME) {
+                getVarLong(records);
+            } else if (kind != END) {
+                records.get();
+                inputs++;
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package program;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Snapshot of a machine: CPU registers and counters, memory by 256-byte page, device state
+// and pending scheduler events. A full save holds only the pages and device states that
+// differ from a freshly reset machine; a delta save holds only the pages written since the save it follows (by
+// page version), so frequent checkpoints of a mostly idle address space stay small.
+// Deltas carry the chain id and position of their full save and are applied to it in order.
+// Format (version 2, big endian): magic, version, flags (1 = delta), chain, index,
+// A B DP CC, X Y S U PC, halted, latched interrupts, cycles, instructions,
+// page count + (page, 256 bytes)*, device count + (first page, length, bytes)*,
+// event count + (cycle, name)*.
+public class SaveState {
+    private static final int MAGIC = 0x36383039; // "6809"
+    private static final int VERSION = 2;
+    private static final int FLAG_DELTA = 0x01;
+    private static final int MAX_SIZE = 1 << 24;
+
+    // Contents of every page after Memory.reset, what full saves leave out
+    private static final byte[] DEFAULTS = new Memory().dump(0x0000, 0x10000);
+
+    // State of the devices every Simulator attaches after reset, by first page (null where
+    // there is none); full saves leave out a device whose state matches
+    private static final byte[][] DEVICE_DEFAULTS = deviceDefaults();
+
+    private static class SavedEvent {
+        final long cycle;
+        final String name;
+
+        SavedEvent(long cycle, String name) {
+            this.cycle = cycle;
+            this.name = name;
+        }
+    }
+
+    private boolean delta;
+    private long chain;  // Shared by a full save and its deltas
+    private int index;   // 0 for the full save, then 1, 2, ... for each delta
+    private final int[] registers = new int[9]; // A, B, X, Y, S, U, PC, DP, CC
+    private boolean halted;
+    private int interrupts;
+    private long cycles;
+    private long instructions;
+    private final byte[][] pages = new byte[256][];      // null: default (full) or unchanged (delta)
+    private final byte[][] devices = new byte[256][];    // By the device's first page
+    private final List<SavedEvent> events = new ArrayList<>();
+    private final int[] versions = new int[256];         // Page versions at capture, not saved
+
+    // Capture a full save (call while holding the simulator lock)
+    public static SaveState capture(Simulator simulator) {
+        SaveState state = new SaveState();
+        state.chain = ThreadLocalRandom.current().nextLong();
+        state.captureMachine(simulator, null);
+        return state;
+    }
+
+    // Capture the changes since previous, the last save taken or restored on this simulator
+    public static SaveState capture(Simulator simulator, SaveState previous) {
+        SaveState state = new SaveState();
+        state.delta = true;
+        state.chain = previous.chain;
+        state.index = previous.index + 1;
+        state.captureMachine(simulator, previous.versions);
+        return state;
+    }
+
+    private void captureMachine(Simulator simulator, int[] since) {
+        CPU cpu = simulator.getCPU();
+        int[] values = {cpu.regA, cpu.regB, cpu.regX, cpu.regY, cpu.regS, cpu.regU, cpu.regPC, cpu.regDP, cpu.regCC};
+        System.arraycopy(values, 0, registers, 0, values.length);
+        halted = cpu.halted;
+        interrupts = cpu.getLatchedInterrupts();
+        cycles = cpu.cycles;
+        instructions = cpu.instructions;
+
+        Memory memory = simulator.getMemory();
+        for (int page = 0; page < 256; page++) {
+            int address = page << 8;
+            versions[page] = memory.getPageVersion(address);
+            if (memory.getDevice(address) == null
+                    && (since != null ? since[page] != versions[page] : !isDefault(memory, address))) {
+                pages[page] = memory.dump(address, 256);
+            }
+        }
+
+        // Writes to a device bump its page versions too, so state bigger than a page
+        // (video memory) goes in a delta only if the program wrote to the device
+        for (int page = 0; page < 256; page++) {
+            Device device = memory.getDevice(page << 8);
+            if (device == null || page > 0 && memory.getDevice((page - 1) << 8) == device) {
+                continue;
+            }
+            byte[] state = device.saveState();
+            boolean changed = false;
+            if (since == null) {
+                changed = !Arrays.equals(state, DEVICE_DEFAULTS[page]);
+            } else {
+                for (int next = page; next < 256 && memory.getDevice(next << 8) == device; next++) {
+                    changed |= since[next] != versions[next];
+                }
+                changed |= state.length <= 256;
+            }
+            if (changed) {
+                devices[page] = state;
+            }
+        }
+
+        for (Scheduler.Event event : simulator.getScheduler().pending()) {
+            events.add(new SavedEvent(event.cycle, event.name));
+        }
+    }
+
+    private static byte[][] deviceDefaults() {
+        Memory memory = new Simulator().getMemory();
+        byte[][] defaults = new byte[256][];
+        for (int page = 0; page < 256; page++) {
+            Device device = memory.getDevice(page << 8);
+            if (device != null && (page == 0 || memory.getDevice((page - 1) << 8) != device)) {
+                defaults[page] = device.saveState();
+            }
+        }
+        return defaults;
+    }
+
+    private static boolean isDefault(Memory memory, int address) {
+        for (int i = 0; i < 256; i++) {
+            if (memory.peek(address + i) != (DEFAULTS[address + i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    // Cycle counter at capture
+    public long getCycles() {
+        return cycles;
+    }
+
+    // Number of pages this save holds
+    public int getPageCount() {
+        int count = 0;
+        for (byte[] page : pages) {
+            if (page != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // The full state this save and the delta that follows it add up to
+    public SaveState apply(SaveState next) {
+        if (!next.delta || next.chain != chain || next.index != index + 1) {
+            throw new IllegalArgumentException("Save state " + next.index + " does not follow " + index + " of this chain");
+        }
+        SaveState state = new SaveState();
+        state.delta = delta;
+        state.chain = chain;
+        state.index = next.index;
+        System.arraycopy(next.registers, 0, state.registers, 0, registers.length);
+        state.halted = next.halted;
+        state.interrupts = next.interrupts;
+        state.cycles = next.cycles;
+        state.instructions = next.instructions;
+        for (int page = 0; page < 256; page++) {
+            state.pages[page] = next.pages[page] != null ? next.pages[page] : pages[page];
+        }
+        for (int page = 0; page < 256; page++) {
+            state.devices[page] = next.devices[page] != null ? next.devices[page] : devices[page];
+        }
+        state.events.addAll(next.events);
+        System.arraycopy(next.versions, 0, state.versions, 0, versions.length);
+        return state;
+    }
+
+    // Put the captured state back (call while holding the simulator lock). Events whose
+    // owner registered no restorer with the scheduler are dropped.
+    public void restore(Simulator simulator) {
+        if (delta) {
+            throw new IllegalStateException("Apply a delta save to its full save before restoring it");
+        }
+        Memory memory = simulator.getMemory();
+        for (int page = 0; page < 256; page++) {
+            int address = page << 8;
+            Device device = memory.getDevice(address);
+            if (device == null) {
+                memory.load(address, pages[page] != null ? pages[page] : Arrays.copyOfRange(DEFAULTS, address, address + 256));
+            } else if (devices[page] != null) {
+                device.restoreState(devices[page]);
+            } else if (DEVICE_DEFAULTS[page] != null && (page == 0 || memory.getDevice((page - 1) << 8) != device)) {
+                device.restoreState(DEVICE_DEFAULTS[page]); // Left out of the full save
+            }
+        }
+
+        CPU cpu = simulator.getCPU();
+        cpu.regA = registers[0];
+        cpu.regB = registers[1];
+        cpu.regX = registers[2];
+        cpu.regY = registers[3];
+        cpu.regS = registers[4];
+        cpu.regU = registers[5];
+        cpu.regPC = registers[6];
+        cpu.regDP = registers[7];
+        cpu.regCC = registers[8];
+        cpu.halted = halted;
+        cpu.setLatchedInterrupts(interrupts);
+        cpu.cycles = cycles;
+        cpu.instructions = instructions;
+
+        Scheduler scheduler = simulator.getScheduler();
+        scheduler.clear();
+        simulator.endReplay(); // Any replay's queued inputs are gone
+        simulator.getACIA().arm();
+        for (SavedEvent event : events) {
+            scheduler.restore(event.cycle, event.name);
+        }
+
+        // Deltas captured from here on continue this chain
+        for (int page = 0; page < 256; page++) {
+            versions[page] = memory.getPageVersion(page << 8);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = encode();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // The file contents, ready to read (also embedded in a Recording)
+    ByteBuffer encode() {
+        List<byte[]> names = new ArrayList<>();
+        int size = 4 + 4 + 1 + 8 + 4 + 4 + 10 + 1 + 1 + 16 + 2 + 2 + 4;
+        for (int page = 0; page < 256; page++) {
+            if (pages[page] != null) {
+                size += 1 + 256;
+            }
+            if (devices[page] != null) {
+                size += 1 + 4 + devices[page].length;
+            }
+        }
+        for (SavedEvent event : events) {
+            byte[] name = event.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 8 + 2 + name.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).put((byte) (delta ? FLAG_DELTA : 0)).putLong(chain).putInt(index);
+        buffer.put((byte) registers[0]).put((byte) registers[1]).put((byte) registers[7]).put((byte) registers[8]);
+        buffer.putShort((short) registers[2]).putShort((short) registers[3]).putShort((short) registers[4])
+                .putShort((short) registers[5]).putShort((short) registers[6]);
+        buffer.put((byte) (halted ? 1 : 0)).put((byte) interrupts);
+        buffer.putLong(cycles).putLong(instructions);
+
+        buffer.putShort((short) getPageCount());
+        for (int page = 0; page < 256; page++) {
+            if (pages[page] != null) {
+                buffer.put((byte) page).put(pages[page]);
+            }
+        }
+        int deviceCount = 0;
+        for (byte[] device : devices) {
+            if (device != null) {
+                deviceCount++;
+            }
+        }
+        buffer.putShort((short) deviceCount);
+        for (int page = 0; page < 256; page++) {
+            if (devices[page] != null) {
+                buffer.put((byte) page).putInt(devices[page].length).put(devices[page]);
+            }
+        }
+        buffer.putInt(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            byte[] name = names.get(i);
+            buffer.putLong(events.get(i).cycle).putShort((short) name.length).put(name);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Read one save; a delta has to be applied to the state it follows before restoring
+    public static SaveState read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_SIZE));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+        }
+        buffer.flip();
+        return decode(buffer, path.getFileName().toString());
+    }
+
+    // Read a save from its encoded form; name is only used in error messages
+    static SaveState decode(ByteBuffer buffer, String name) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a 6809 save state: " + name);
+        }
+        int version = buffer.getInt();
+        SaveState state = new SaveState();
+        try {
+            if (version != VERSION) {
+                throw new IOException("Unsupported save state version " + version + ": " + name);
+            }
+            state.readVersion2(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated save state: " + name);
+        }
+        return state;
+    }
+
+    // Read a full save followed by its deltas, in order, as one full state
+    public static SaveState read(Path full, List<Path> deltas) throws IOException {
+        SaveState state = read(full);
+        for (Path path : deltas) {
+            try {
+                state = state.apply(read(path));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return state;
+    }
+
+    private void readVersion2(ByteBuffer buffer) {
+        delta = (buffer.get() & FLAG_DELTA) != 0;
+        chain = buffer.getLong();
+        index = buffer.getInt();
+        registers[0] = buffer.get() & 0xFF;
+        registers[1] = buffer.get() & 0xFF;
+        registers[7] = buffer.get() & 0xFF;
+        registers[8] = buffer.get() & 0xFF;
+        for (int i = 2; i <= 6; i++) {
+            registers[i] = buffer.getShort() & 0xFFFF;
+        }
+        halted = buffer.get() != 0;
+        interrupts = buffer.get() & 0xFF;
+        cycles = buffer.getLong();
+        instructions = buffer.getLong();
+
+        int pageCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < pageCount; i++) {
+            int page = buffer.get() & 0xFF;
+            pages[page] = new byte[256];
+            buffer.get(pages[page]);
+        }
+        int deviceCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < deviceCount; i++) {
+            int page = buffer.get() & 0xFF;
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            devices[page] = new byte[length];
+            buffer.get(devices[page]);
+        }
+        int eventCount = buffer.getInt();
+        for (int i = 0; i < eventCount; i++) {
+            long cycle = buffer.getLong();
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            events.add(new SavedEvent(cycle, new String(name, StandardCharsets.UTF_8)));
+        }
+    }
+}
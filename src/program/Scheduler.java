@@ -0,0 +1,92 @@
+package program;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
+
+// Actions stamped with the emulated cycle they are due at (timers, device changes,
+// interrupt lines). The run loop stops at the earliest one, which is also as far as
+// an idle loop may be fast-forwarded. Events due at the same cycle run in the order
+// they were scheduled. Only used while holding the simulator lock.
+// Actions can't be saved, so save states keep each event's cycle and name and hand them
+// back to whoever registered a restorer for that name, which schedules it again.
+public class Scheduler {
+
+    public static class Event {
+        public final long cycle;
+        public final String name;
+        final Runnable action;
+        final long sequence;
+
+        Event(long cycle, String name, Runnable action, long sequence) {
+            this.cycle = cycle;
+            this.name = name;
+            this.action = action;
+            this.sequence = sequence;
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>(
+            (a, b) -> a.cycle != b.cycle ? Long.compare(a.cycle, b.cycle) : Long.compare(a.sequence, b.sequence));
+    private long sequence;
+    private final Map<String, LongConsumer> restorers = new HashMap<>();
+
+    // Run action at the first instruction boundary at or after cycle
+    public Event schedule(long cycle, String name, Runnable action) {
+        Event event = new Event(cycle, name, action, sequence++);
+        queue.add(event);
+        return event;
+    }
+
+    public void cancel(Event event) {
+        queue.remove(event);
+    }
+
+    // Cycle of the earliest event, Long.MAX_VALUE if none
+    public long nextEventCycle() {
+        Event next = queue.peek();
+        return next == null ? Long.MAX_VALUE : next.cycle;
+    }
+
+    // Run every event due at or before now
+    public void runDue(long now) {
+        Event next;
+        while ((next = queue.peek()) != null && next.cycle <= now) {
+            queue.poll();
+            next.action.run();
+        }
+    }
+
+    // Pending events in the order they will run
+    public List<Event> pending() {
+        List<Event> events = new ArrayList<>(queue);
+        events.sort(queue.comparator());
+        return events;
+    }
+    
+    // Owner of events named name: reschedules one at the given cycle (see restore)
+    public void setRestorer(String name, LongConsumer restorer) {
+        restorers.put(name, restorer);
+    }
+    
+    // Recreate a saved event, false if nothing registered to rebuild it
+    public boolean restore(long cycle, String name) {
+        LongConsumer restorer = restorers.get(name);
+        if (restorer == null) {
+            return false;
+        }
+        restorer.accept(cycle);
+        return true;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+}
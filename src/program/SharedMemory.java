@@ -0,0 +1,176 @@
+package program;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memory of one core in a multi-CPU system: private RAM and ROM, except for a window
+// backed by a Region that every core sees. Accesses to the window are acquire/release,
+// so a core that sees a flag byte written by another also sees everything that core
+// wrote before it, without any lock. 16-bit values are two byte accesses, as on the bus.
+// Writes to the window by any core count in every core's write count, page versions,
+// dirty pages and state hash, since every core sees the bytes change.
+public class SharedMemory extends Memory {
+
+    // Bytes shared by all cores
+    public static class Region {
+        private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+        private final int start;
+        private final int end; // Exclusive
+        private final byte[] data;
+        private final AtomicLong hash = new AtomicLong(); // XOR of Memory.hashOf over the window
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicIntegerArray pageVersions;
+
+        public Region(int start, int size) {
+            if (start < 0 || size <= 0 || start + size > 0x10000) {
+                throw new IllegalArgumentException(String.format("Invalid shared region: $%04X, %d bytes", start, size));
+            }
+            this.start = start;
+            this.end = start + size;
+            this.data = new byte[size];
+            this.pageVersions = new AtomicIntegerArray(((end - 1) >> 8) - (start >> 8) + 1);
+            long initial = 0;
+            for (int a = start; a < end; a++) {
+                initial ^= Memory.hashOf(a, 0);
+            }
+            hash.set(initial);
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getSize() {
+            return data.length;
+        }
+
+        boolean contains(int address) {
+            return address >= start && address < end;
+        }
+
+        int read(int address) {
+            return (byte) BYTES.getAcquire(data, address - start) & 0xFF;
+        }
+
+        void write(int address, int value) {
+            int old = (byte) BYTES.getAndSetRelease(data, address - start, (byte) value) & 0xFF;
+            long delta = Memory.hashOf(address, old) ^ Memory.hashOf(address, value & 0xFF);
+            hash.accumulateAndGet(delta, (a, b) -> a ^ b);
+            pageVersions.incrementAndGet((address >> 8) - (start >> 8));
+            writes.incrementAndGet();
+        }
+
+        long getHash() {
+            return hash.get();
+        }
+
+        long getWrites() {
+            return writes.get();
+        }
+
+        int getPageVersion(int address) {
+            return pageVersions.get((address >> 8) - (start >> 8));
+        }
+    }
+
+    private final Region region;
+    private long seenWrites; // Region writes already reported by takeDirtyPages
+
+    public SharedMemory(Region region) {
+        this.region = region;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    @Override
+    public int read(int address) {
+        address &= 0xFFFF;
+        return region.contains(address) ? region.read(address) : super.read(address);
+    }
+
+    @Override
+    public int peek(int address) {
+        address &= 0xFFFF;
+        return region.contains(address) ? region.read(address) : super.peek(address);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        address &= 0xFFFF;
+        if (region.contains(address)) {
+            region.write(address, value);
+            noteWrite(address);
+        } else {
+            super.write(address, value);
+        }
+    }
+
+    // Private runs are bulk loaded, shared bytes released one by one
+    @Override
+    public void load(int address, byte[] data) {
+        int i = 0;
+        while (i < data.length) {
+            boolean shared = region.contains((address + i) & 0xFFFF);
+            int run = i + 1;
+            while (run < data.length && region.contains((address + run) & 0xFFFF) == shared) {
+                run++;
+            }
+            if (shared) {
+                for (int j = i; j < run; j++) {
+                    region.write((address + j) & 0xFFFF, data[j]);
+                    noteWrite(address + j);
+                }
+            } else {
+                super.load((address + i) & 0xFFFF, Arrays.copyOfRange(data, i, run));
+            }
+            i = run;
+        }
+    }
+
+    // Writes to the window by other cores count too
+    @Override
+    public long getWriteCount() {
+        return super.getWriteCount() + region.getWrites();
+    }
+
+    @Override
+    public int getPageVersion(int address) {
+        address &= 0xFFFF;
+        int version = super.getPageVersion(address);
+        return region.contains(address) ? version + region.getPageVersion(address) : version;
+    }
+
+    // The window's pages are dirty whenever any core wrote to it since the last call
+    @Override
+    public boolean takeDirtyPages(long[] out) {
+        boolean any = super.takeDirtyPages(out);
+        long writes = region.getWrites();
+        if (writes != seenWrites) {
+            seenWrites = writes;
+            for (int page = region.getStart() >> 8; page <= (region.getStart() + region.getSize() - 1) >> 8; page++) {
+                out[page >> 6] |= 1L << page;
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    // Memory's hash covers the private bytes hidden behind the window: swap those terms
+    // for the window's own (one pass over the window)
+    @Override
+    public long getStateHash() {
+        long hash = super.getStateHash() ^ region.getHash();
+        for (int a = region.getStart(); a < region.getStart() + region.getSize(); a++) {
+            if (getDevice(a) == null) {
+                hash ^= Memory.hashOf(a, super.peek(a));
+            }
+        }
+        return hash;
+    }
+}
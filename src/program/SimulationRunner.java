@@ -0,0 +1,214 @@
+package program;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Runs the CPU on its own thread in short slices, holding the simulator's lock only
+// while a slice executes so the UI can step, reset or sample state in between.
+// A clock rate of 0 runs unthrottled; otherwise emulated cycles are paced against
+// host time so the program runs at the configured speed.
+// With breakpoints set, slices run unfused and the runner pauses itself in front of a
+// breakpoint; resuming executes that instruction before checking again.
+public class SimulationRunner implements Runnable {
+    private static final long UNTHROTTLED_SLICE = 100_000; // Cycles per slice when unthrottled
+    private static final long SLICES_PER_SECOND = 1000;    // Slice length when throttled (1 ms)
+
+    private final Simulator simulator;
+    private final CPU cpu;
+    private final Runnable onBreak;
+    private final Runnable onFinish;
+    private final Object pauseLock = new Object();
+    private volatile long clockRate;
+    private volatile boolean paused;
+    private volatile boolean stopRequested;
+    private volatile boolean pacingChanged;
+    private Thread thread;
+    private int resumeAddress = -1; // Breakpoint to step over after resuming from it
+
+    // Pacing reference, reset whenever the speed changes or the run resumes
+    private long baseTime;
+    private long baseCycles;
+
+    public SimulationRunner(Simulator simulator, long clockRate, Runnable onFinish) {
+        this(simulator, clockRate, null, onFinish);
+    }
+
+    // onBreak runs on the runner thread after it paused at a breakpoint
+    public SimulationRunner(Simulator simulator, long clockRate, Runnable onBreak, Runnable onFinish) {
+        this.simulator = simulator;
+        this.cpu = simulator.getCPU();
+        this.clockRate = clockRate;
+        this.onBreak = onBreak;
+        this.onFinish = onFinish;
+    }
+
+    public void start() {
+        thread = new Thread(this, "cpu");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        SimulatorEvents.RunSession session = new SimulatorEvents.RunSession();
+        session.begin();
+        long startInstructions = cpu.instructions;
+        long startCycles = cpu.cycles;
+        SimulatorEvents.started(this, cpu);
+        rebase(cpu);
+        try {
+            while (!stopRequested) {
+                if (paused && !waitWhilePaused()) {
+                    break;
+                }
+                if (pacingChanged) {
+                    rebase(cpu);
+                }
+
+                long rate = clockRate;
+                long slice = rate == 0 ? UNTHROTTLED_SLICE : Math.max(1, rate / SLICES_PER_SECOND);
+                boolean halted;
+                int breakpoint = -1;
+                synchronized (simulator) {
+                    long end = cpu.cycles + slice;
+                    if (simulator.hasBreakpoints()) {
+                        breakpoint = runToBreakpoint(simulator.getBreakpoints(), end);
+                    } else {
+                        simulator.runUntil(end);
+                    }
+                    simulator.recordHostTime();
+                    halted = cpu.halted;
+                }
+                if (halted) {
+                    break;
+                }
+                if (breakpoint >= 0) {
+                    SimulatorEvents.breakpoint(breakpoint, cpu.cycles);
+                    resumeAddress = breakpoint;
+                    paused = true;
+                    if (onBreak != null) {
+                        onBreak.run();
+                    }
+                    continue;
+                }
+                if (rate != 0) {
+                    throttle(cpu, rate);
+                }
+            }
+        } finally {
+            SimulatorEvents.finished(this);
+            session.end();
+            if (session.shouldCommit()) {
+                session.instructions = cpu.instructions - startInstructions;
+                session.cycles = cpu.cycles - startCycles;
+                session.clockRate = clockRate;
+                session.haltReason = cpu.halted ? "halted" : "stopped";
+                session.commit();
+            }
+            if (onFinish != null) {
+                onFinish.run();
+            }
+        }
+    }
+
+    // Run one instruction per dispatch until the slice ends; returns the address of the
+    // breakpoint the CPU stopped in front of, or -1. Idle loops are not skipped here since
+    // a skipped iteration could pass over a breakpoint.
+    private int runToBreakpoint(boolean[] breakpoints, long end) {
+        Scheduler scheduler = simulator.getScheduler();
+        while (!cpu.halted && cpu.cycles < end) {
+            int pc = cpu.regPC;
+            if (breakpoints[pc] && pc != resumeAddress && simulator.breakpointHit(pc)) {
+                return pc;
+            }
+            resumeAddress = -1;
+            cpu.execute(false);
+            scheduler.runDue(cpu.cycles);
+        }
+        return -1;
+    }
+
+    // Sleep until host time catches up with the emulated cycles
+    private void throttle(CPU cpu, long rate) {
+        long emulatedNanos = (cpu.cycles - baseCycles) * 1_000_000_000L / rate;
+        long ahead = emulatedNanos - (System.nanoTime() - baseTime);
+        if (ahead > 0) {
+            LockSupport.parkNanos(ahead);
+        } else if (ahead < -100_000_000L) {
+            // More than 100 ms behind (host too slow), don't try to catch up in a burst
+            rebase(cpu);
+        }
+    }
+
+    private void rebase(CPU cpu) {
+        pacingChanged = false;
+        baseTime = System.nanoTime();
+        baseCycles = cpu.cycles;
+    }
+
+    // Returns false if stopped while paused
+    private boolean waitWhilePaused() {
+        synchronized (pauseLock) {
+            while (paused && !stopRequested) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        pacingChanged = true;
+        return !stopRequested;
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    // Ask the thread to finish and wait for it
+    public void stop() {
+        stopRequested = true;
+        resume();
+        if (thread != null) {
+            LockSupport.unpark(thread); // Wake it from a throttling sleep
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Clock rate in Hz, 0 for unthrottled
+    public void setClockRate(long clockRate) {
+        this.clockRate = clockRate;
+        pacingChanged = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public CPU getCPU() {
+        return cpu;
+    }
+
+    public long getClockRate() {
+        return clockRate;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+}
@@ -0,0 +1,742 @@
+package program;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local HTTP/JSON service that assembles and runs programs for other tools, on a pool of
+// Simulators created up front and reset between jobs, so a request pays for neither the
+// allocation nor a cold CPU loop.
+//   POST /run      a job, or an array of jobs run in order on one Simulator (batching):
+//                  {"source": "<assembly>", "maxCycles": 1000000,
+//                   "dump": [{"address": 16384, "length": 16}], "coverage": true}
+//                  Several files are linked as modules (assembled in parallel) instead with
+//                  "sources": [{"name": "main", "text": "<assembly>"}, ...] and optionally
+//                  "memoryMap": "<MemoryMap text>" (MemoryMap.defaultMap otherwise).
+//                  A multi-core job (MultiCPUSystem) has one source per core and a window
+//                  all cores share: {"cores": ["<assembly>", ...],
+//                  "shared": {"address": 28672, "size": 256}, "quantum": 1000}; its result
+//                  has "cores" (halted, cycles, instructions and registers of each) and
+//                  dumps core 0's view of memory.
+//                  Each job starts from a reset machine and runs until it halts or reaches
+//                  its cycle limit (never more than the service's own). A result holds
+//                  "ok", "error" or "halted", "cycles", "instructions", "registers" and
+//                  "memory" (one hex string per dump range), "lcov" (an LCOV tracefile of
+//                  the run, when coverage was asked for) and "micros".
+//   GET /metrics   pool use, request, job and rejection counts, request latency
+//                  percentiles, assembly cache hits and misses (with a cache), and jobs/s
+//                  and MIPS since the previous call
+// When every Simulator is busy a request gets 503 with Retry-After instead of queueing.
+public class SimulationService {
+    public static final long MAX_CYCLES = 100_000_000; // Default per-job limit, 100 s at 1 MHz
+    private static final int MAX_BODY = 1 << 20;
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_DUMP = 0x10000;
+    private static final int MAX_MODULES = 64;
+    private static final int MAX_CORES = 16;
+
+    private final int port;
+    private final long maxCycles;
+    private final int poolSize;
+    private final BlockingQueue<Simulator> idle;
+    private AssemblyCache assemblyCache; // Shared by the pool, null for none
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // Metrics
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder jobs = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder cycles = new LongAdder();
+    private final LongAdder instructions = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLongArray latencies = new AtomicLongArray(64); // Requests by log2 of microseconds
+    private final LongAdder latencyTotal = new LongAdder();
+
+    // Previous rate sample
+    private long sampleTime = System.nanoTime();
+    private long sampleJobs;
+    private long sampleInstructions;
+
+    // Port 0 picks a free port (see getPort); maxCycles caps every job
+    public SimulationService(int port, int poolSize, long maxCycles) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        if (maxCycles < 1) {
+            throw new IllegalArgumentException("Cycle limit must be at least 1");
+        }
+        this.port = port;
+        this.poolSize = poolSize;
+        this.maxCycles = maxCycles;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    // Cache every pooled Simulator's assembled images in (call before start); jobs that
+    // send the same source again skip assembling
+    public void setAssemblyCache(AssemblyCache assemblyCache) {
+        this.assemblyCache = assemblyCache;
+    }
+
+    // Create the pool and serve on the loopback interface. Handler threads beyond the pool
+    // only turn requests away, so a burst is answered with 503s rather than left waiting.
+    public void start() throws IOException {
+        for (int i = 0; i < poolSize; i++) {
+            Simulator simulator = new Simulator();
+            simulator.setAssemblyCache(assemblyCache);
+            idle.add(simulator);
+        }
+        // Without TCP_NODELAY small replies wait out the client's delayed ACK (about 40 ms);
+        // the JDK server reads this once, when the first server starts
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/run", this::run);
+        server.createContext("/metrics", this::metrics);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(poolSize * 2, task -> {
+            Thread thread = new Thread(task, "service-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stop accepting, let running requests finish briefly, then stop the handler threads
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+        }
+    }
+
+    // POST /run
+    private void run(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.increment();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, error("Use POST"));
+                return;
+            }
+            String text = readBody(exchange);
+            if (text == null) {
+                respond(exchange, 413, error("Body larger than " + MAX_BODY + " bytes"));
+                return;
+            }
+            Object body;
+            try {
+                body = Json.parse(text);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            boolean batch = body instanceof List;
+            List<?> list = batch ? (List<?>) body : Collections.singletonList(body);
+            if (list.isEmpty() || list.size() > MAX_BATCH) {
+                respond(exchange, 400, error("A batch holds 1 to " + MAX_BATCH + " jobs"));
+                return;
+            }
+
+            Simulator simulator = idle.poll();
+            if (simulator == null) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, error("All " + poolSize + " simulators are busy"));
+                return;
+            }
+            List<Object> results = new ArrayList<>();
+            inFlight.incrementAndGet();
+            try {
+                for (Object job : list) {
+                    results.add(runJob(simulator, job));
+                }
+            } finally {
+                inFlight.decrementAndGet();
+                idle.add(simulator);
+            }
+            respond(exchange, 200, Json.write(batch ? results : results.get(0)));
+        } finally {
+            long micros = (System.nanoTime() - start) / 1000;
+            latencies.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, micros)));
+            latencyTotal.add(micros);
+        }
+    }
+
+    // One job on a machine reset to power-on state
+    private Map<String, Object> runJob(Simulator simulator, Object job) {
+        long start = System.nanoTime();
+        jobs.increment();
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!(job instanceof Map) || !(((Map<?, ?>) job).get("source") instanceof String
+                || ((Map<?, ?>) job).get("sources") instanceof List || ((Map<?, ?>) job).get("cores") instanceof List)) {
+            return failure(result, "A job is an object with a \"source\" string or a \"sources\" or \"cores\" array");
+        }
+        Map<?, ?> fields = (Map<?, ?>) job;
+        List<ModuleBuilder.SourceFile> sources = null;
+        MemoryMap map = MemoryMap.defaultMap();
+        List<String> cores = null;
+        int sharedStart = 0;
+        int sharedSize = 0;
+        long quantum = MultiCPUSystem.DEFAULT_QUANTUM;
+        if (fields.get("cores") instanceof List) {
+            cores = new ArrayList<>();
+            for (Object core : (List<?>) fields.get("cores")) {
+                if (!(core instanceof String)) {
+                    return failure(result, "cores must be an array of assembly strings");
+                }
+                cores.add((String) core);
+            }
+            if (cores.isEmpty() || cores.size() > MAX_CORES) {
+                return failure(result, "cores must hold 1 to " + MAX_CORES + " sources");
+            }
+            Object shared = fields.get("shared");
+            Object address = shared instanceof Map ? ((Map<?, ?>) shared).get("address") : null;
+            Object size = shared instanceof Map ? ((Map<?, ?>) shared).get("size") : null;
+            if (!(address instanceof Long) || !(size instanceof Long) || (Long) address < 0 || (Long) size < 1
+                    || (Long) address + (Long) size > 0x10000) {
+                return failure(result, "shared must be an {address, size} window inside 0-65535");
+            }
+            sharedStart = ((Long) address).intValue();
+            sharedSize = ((Long) size).intValue();
+            Object requestedQuantum = fields.get("quantum");
+            if (requestedQuantum != null) {
+                if (!(requestedQuantum instanceof Long) || (Long) requestedQuantum < 1) {
+                    return failure(result, "quantum must be a positive integer");
+                }
+                quantum = (Long) requestedQuantum;
+            }
+        } else if (!(fields.get("source") instanceof String)) {
+            sources = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            for (Object file : (List<?>) fields.get("sources")) {
+                Object name = file instanceof Map ? ((Map<?, ?>) file).get("name") : null;
+                Object text = file instanceof Map ? ((Map<?, ?>) file).get("text") : null;
+                if (!(name instanceof String) || !(text instanceof String) || !names.add((String) name)) {
+                    return failure(result, "sources must be {name, text} objects with distinct names");
+                }
+                sources.add(new ModuleBuilder.SourceFile((String) name, (String) text));
+            }
+            if (sources.isEmpty() || sources.size() > MAX_MODULES) {
+                return failure(result, "sources must hold 1 to " + MAX_MODULES + " files");
+            }
+            Object mapText = fields.get("memoryMap");
+            if (mapText != null) {
+                if (!(mapText instanceof String)) {
+                    return failure(result, "memoryMap must be a string");
+                }
+                try {
+                    map = MemoryMap.parse((String) mapText);
+                } catch (IllegalArgumentException e) {
+                    return failure(result, e.getMessage());
+                }
+            }
+        }
+        long limit = maxCycles;
+        Object requested = fields.get("maxCycles");
+        if (requested != null) {
+            if (!(requested instanceof Long) || (Long) requested < 1) {
+                return failure(result, "maxCycles must be a positive integer");
+            }
+            limit = Math.min(limit, (Long) requested);
+        }
+        Object wantsCoverage = fields.get("coverage");
+        if (wantsCoverage != null && !(wantsCoverage instanceof Boolean)) {
+            return failure(result, "coverage must be true or false");
+        }
+        Coverage coverage = Boolean.TRUE.equals(wantsCoverage) ? new Coverage() : null;
+        if (coverage != null && cores != null) {
+            return failure(result, "coverage is not available for multi-core jobs");
+        }
+        List<int[]> ranges = new ArrayList<>();
+        if (fields.get("dump") != null) {
+            if (!(fields.get("dump") instanceof List)) {
+                return failure(result, "dump must be an array of {address, length}");
+            }
+            for (Object range : (List<?>) fields.get("dump")) {
+                Object address = range instanceof Map ? ((Map<?, ?>) range).get("address") : null;
+                Object length = range instanceof Map ? ((Map<?, ?>) range).get("length") : null;
+                if (!(address instanceof Long) || !(length instanceof Long)
+                        || (Long) address < 0 || (Long) address > 0xFFFF || (Long) length < 0 || (Long) length > MAX_DUMP) {
+                    return failure(result, "dump ranges need an address of 0-65535 and a length of 0-65536");
+                }
+                ranges.add(new int[] { ((Long) address).intValue(), ((Long) length).intValue() });
+            }
+        }
+
+        if (cores != null) {
+            return runCores(simulator, cores, new MultiCPUSystem(cores.size(), sharedStart, sharedSize, quantum),
+                    limit, ranges, result, start);
+        }
+
+        synchronized (simulator) {
+            CPU cpu = simulator.getCPU();
+            Memory memory = simulator.getMemory();
+            memory.reset();
+            boolean assembled = sources != null ? simulator.assembleModules(sources, map)
+                    : simulator.assemble((String) fields.get("source"));
+            if (!assembled) {
+                return failure(result, simulator.getAssemblerError());
+            }
+            simulator.loadProgram();
+            simulator.reset();
+            simulator.setCoverage(coverage);
+            try {
+                simulator.runUntil(limit);
+            } finally {
+                simulator.setCoverage(null);
+            }
+
+            cycles.add(cpu.cycles);
+            instructions.add(cpu.instructions);
+            result.put("ok", true);
+            result.put("halted", cpu.halted);
+            result.put("cycles", cpu.cycles);
+            result.put("instructions", cpu.instructions);
+            result.put("registers", registers(cpu));
+            result.put("memory", dumps(memory, ranges));
+            if (coverage != null) {
+                StringWriter lcov = new StringWriter();
+                try {
+                    coverage.writeLcov(lcov, simulator.getImage());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // A StringWriter doesn't throw
+                }
+                result.put("lcov", lcov.toString());
+            }
+        }
+        result.put("micros", (System.nanoTime() - start) / 1000);
+        return result;
+    }
+
+    // A multi-core job: sources are assembled on the pooled Simulator (and its cache), then
+    // every core runs on its own thread until all have halted or reached the cycle limit
+    private Map<String, Object> runCores(Simulator simulator, List<String> sources, MultiCPUSystem system,
+            long limit, List<int[]> ranges, Map<String, Object> result, long start) {
+        synchronized (simulator) {
+            for (int core = 0; core < sources.size(); core++) {
+                if (!simulator.assemble(sources.get(core))) {
+                    return failure(result, "Core " + core + ": " + simulator.getAssemblerError());
+                }
+                system.load(core, simulator.getImage());
+            }
+        }
+        system.start(limit);
+        try {
+            system.join();
+        } catch (InterruptedException e) {
+            system.stop();
+            Thread.currentThread().interrupt();
+            return failure(result, "Interrupted");
+        }
+
+        boolean halted = true;
+        List<Object> states = new ArrayList<>();
+        for (int core = 0; core < system.getCoreCount(); core++) {
+            CPU cpu = system.getCPU(core);
+            cycles.add(cpu.cycles);
+            instructions.add(cpu.instructions);
+            halted &= cpu.halted;
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("halted", cpu.halted);
+            state.put("cycles", cpu.cycles);
+            state.put("instructions", cpu.instructions);
+            state.put("registers", registers(cpu));
+            states.add(state);
+        }
+        result.put("ok", true);
+        result.put("halted", halted);
+        result.put("cores", states);
+        result.put("memory", dumps(system.getMemory(0), ranges));
+        result.put("micros", (System.nanoTime() - start) / 1000);
+        return result;
+    }
+
+    private static Map<String, Object> registers(CPU cpu) {
+        Map<String, Object> registers = new LinkedHashMap<>();
+        registers.put("A", (long) cpu.regA);
+        registers.put("B", (long) cpu.regB);
+        registers.put("DP", (long) cpu.regDP);
+        registers.put("CC", (long) cpu.regCC);
+        registers.put("X", (long) cpu.regX);
+        registers.put("Y", (long) cpu.regY);
+        registers.put("S", (long) cpu.regS);
+        registers.put("U", (long) cpu.regU);
+        registers.put("PC", (long) cpu.regPC);
+        return registers;
+    }
+
+    // One hex string per {address, length} range
+    private static List<Object> dumps(Memory memory, List<int[]> ranges) {
+        List<Object> dumps = new ArrayList<>();
+        for (int[] range : ranges) {
+            Map<String, Object> dump = new LinkedHashMap<>();
+            dump.put("address", (long) range[0]);
+            dump.put("data", hex(memory.dump(range[0], Math.min(range[1], 0x10000 - range[0]))));
+            dumps.add(dump);
+        }
+        return dumps;
+    }
+
+    private Map<String, Object> failure(Map<String, Object> result, String message) {
+        failed.increment();
+        result.put("ok", false);
+        result.put("error", message);
+        return result;
+    }
+
+    // GET /metrics
+    private void metrics(HttpExchange exchange) throws IOException {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("poolSize", (long) poolSize);
+        metrics.put("idle", (long) idle.size());
+        metrics.put("inFlight", (long) inFlight.get());
+        metrics.put("requests", requests.sum());
+        metrics.put("jobs", jobs.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("cycles", cycles.sum());
+        metrics.put("instructions", instructions.sum());
+        if (assemblyCache != null) {
+            metrics.put("cacheHits", (long) assemblyCache.getHits());
+            metrics.put("cacheMisses", (long) assemblyCache.getMisses());
+        }
+
+        long[] counts = new long[latencies.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies.get(i);
+            total += counts[i];
+        }
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", total == 0 ? 0L : latencyTotal.sum() / total);
+        latency.put("p50", percentile(counts, total, 0.50));
+        latency.put("p90", percentile(counts, total, 0.90));
+        latency.put("p99", percentile(counts, total, 0.99));
+        metrics.put("latencyMicros", latency);
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            long doneJobs = jobs.sum();
+            long doneInstructions = instructions.sum();
+            double seconds = (now - sampleTime) / 1e9;
+            metrics.put("jobsPerSecond", seconds > 0 ? (doneJobs - sampleJobs) / seconds : 0.0);
+            metrics.put("mips", seconds > 0 ? (doneInstructions - sampleInstructions) / seconds / 1e6 : 0.0);
+            sampleTime = now;
+            sampleJobs = doneJobs;
+            sampleInstructions = doneInstructions;
+        }
+        respond(exchange, 200, Json.write(metrics));
+    }
+
+    // Upper bound (microseconds) of the histogram bucket holding the given fraction of requests
+    private static long percentile(long[] counts, long total, double fraction) {
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= fraction * total) {
+                return 2L << i;
+            }
+        }
+        return 0;
+    }
+
+    // The request body, null if larger than MAX_BODY
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, count);
+                if (body.size() > MAX_BODY) {
+                    return null;
+                }
+            }
+        }
+        return body.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        return Json.write(Collections.singletonMap("error", message));
+    }
+
+    private static String hex(byte[] data) {
+        StringBuilder text = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    // Just enough JSON: objects become Maps, arrays Lists, integers Long and other numbers
+    // Double. Malformed input is an IllegalArgumentException naming the position.
+    static final class Json {
+        private final String text;
+        private int at;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        static Object parse(String text) {
+            Json json = new Json(text);
+            Object value = json.value();
+            json.skipSpace();
+            if (json.at < text.length()) {
+                throw json.error("Unexpected text after the value");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (at >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(at);
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                default:
+                    if (c == '-' || Character.isDigit(c)) {
+                        return number();
+                    }
+                    for (String word : new String[] { "true", "false", "null" }) {
+                        if (text.startsWith(word, at)) {
+                            at += word.length();
+                            return word.equals("null") ? null : Boolean.valueOf(word);
+                        }
+                    }
+                    throw error("Unexpected '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            at++;
+            skipSpace();
+            if (peek() == '}') {
+                at++;
+                return object;
+            }
+            while (true) {
+                skipSpace();
+                if (peek() != '"') {
+                    throw error("Expected a name");
+                }
+                String name = string();
+                skipSpace();
+                expect(':');
+                object.put(name, value());
+                skipSpace();
+                if (peek() == ',') {
+                    at++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            at++;
+            skipSpace();
+            if (peek() == ']') {
+                at++;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipSpace();
+                if (peek() == ',') {
+                    at++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            StringBuilder value = new StringBuilder();
+            at++;
+            while (true) {
+                if (at >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = text.charAt(at++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = at < text.length() ? text.charAt(at++) : '?';
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (at + 4 > text.length()) {
+                            throw error("Bad \\u escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Bad \\u escape");
+                        }
+                        at += 4;
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escaped);
+                        break;
+                    default:
+                        throw error("Bad escape \\" + escaped);
+                }
+            }
+        }
+
+        private Object number() {
+            int start = at;
+            if (peek() == '-') {
+                at++;
+            }
+            while (at < text.length() && "0123456789.eE+-".indexOf(text.charAt(at)) >= 0) {
+                at++;
+            }
+            String number = text.substring(start, at);
+            try {
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    return Long.parseLong(number);
+                }
+                return Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + number);
+            }
+        }
+
+        private char peek() {
+            return at < text.length() ? text.charAt(at) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            at++;
+        }
+
+        private void skipSpace() {
+            while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+                at++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + at);
+        }
+
+        static String write(Object value) {
+            StringBuilder out = new StringBuilder();
+            write(out, value);
+            return out.toString();
+        }
+
+        private static void write(StringBuilder out, Object value) {
+            if (value instanceof Map) {
+                out.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    out.append(first ? "" : ",");
+                    writeString(out, String.valueOf(entry.getKey()));
+                    out.append(':');
+                    write(out, entry.getValue());
+                    first = false;
+                }
+                out.append('}');
+            } else if (value instanceof List) {
+                out.append('[');
+                boolean first = true;
+                for (Object element : (List<?>) value) {
+                    out.append(first ? "" : ",");
+                    write(out, element);
+                    first = false;
+                }
+                out.append(']');
+            } else if (value instanceof String) {
+                writeString(out, (String) value);
+            } else if (value instanceof Double) {
+                double number = (Double) value;
+                out.append(Double.isFinite(number) ? String.format(Locale.ROOT, "%.3f", number) : "null");
+            } else {
+                out.append(value); // Long, Boolean or null
+            }
+        }
+
+        private static void writeString(StringBuilder out, String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+    }
+}
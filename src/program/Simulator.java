@@ -1,43 +1,375 @@
 package program;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.management.JMException;
+
 public class Simulator {
     private CPU cpu;
     private Memory memory;
     private Assembler assembler;
+    private Disassembler disassembler;
+    private final Scheduler scheduler = new Scheduler();
+    private final FrameBuffer frameBuffer = new FrameBuffer();
+    private final ACIA acia;
+    private ModuleBuilder moduleBuilder;
+    private AssemblyCache assemblyCache;
+    private LinkedImage image;
+    private String errorMessage;
+    private volatile SimulationRunner runner;
+    private volatile long clockRate = 1_000_000; // Hz, 0 for unthrottled
+    private Recording recording; // Inputs being recorded, null when not recording
+    private final boolean[] breakpoints = new boolean[0x10000];
+    private final Breakpoint[] conditions = new Breakpoint[0x10000]; // null where the breakpoint is plain
+    private int breakpointCount;
+    private volatile Consumer<String> traceOutput = System.out::println;
+    private SimulatorMonitor monitor;
     
     public Simulator() {
         memory = new Memory();
+        memory.attach(frameBuffer, FrameBuffer.BASE, FrameBuffer.SIZE);
         cpu = new CPU(memory);
+        acia = new ACIA(cpu, scheduler);
+        memory.attach(acia, ACIA.BASE, ACIA.SIZE);
         assembler = new Assembler();
+        disassembler = new Disassembler(memory);
+    }
+    
+    // Cache assembled images on disk (null disables caching)
+    public void setAssemblyCache(AssemblyCache assemblyCache) {
+        this.assemblyCache = assemblyCache;
     }
     
     // Assemble source code
-    public boolean assemble(String sourceCode) {
-        return assembler.assemble(sourceCode);
+    public synchronized boolean assemble(String sourceCode) {
+        SimulatorEvents.Assembly event = new SimulatorEvents.Assembly();
+        event.begin();
+        String key = null;
+        if (assemblyCache != null) {
+            // A hit skips parsing entirely
+            key = AssemblyCache.key(sourceCode, assembler.getOptionsKey());
+            image = assemblyCache.get(key);
+            if (image != null) {
+                errorMessage = null;
+                event.cached = true;
+                commit(event, event.shouldCommit() ? (int) sourceCode.lines().count() : 0, 1, true);
+                return true;
+            }
+        }
+        
+        boolean success = assembler.assemble(sourceCode);
+        image = success ? assembler.getImage() : null;
+        errorMessage = assembler.getErrorMessage();
+        if (success && key != null) {
+            assemblyCache.put(key, image);
+        }
+        // Counting lines walks the whole source, so only when the event is recorded
+        commit(event, event.shouldCommit() ? (int) sourceCode.lines().count() : 0, 1, success);
+        return success;
     }
     
-    // Load assembled program into memory
-    public void loadProgram() {
-        assembler.loadIntoMemory(memory);
+    // Assemble several source files in parallel and link them with the given memory map
+    public synchronized boolean assembleModules(List<ModuleBuilder.SourceFile> sources, MemoryMap map) {
+        if (moduleBuilder == null) {
+            moduleBuilder = new ModuleBuilder();
+        }
+        SimulatorEvents.Assembly event = new SimulatorEvents.Assembly();
+        event.begin();
+        boolean success = moduleBuilder.build(sources, map);
+        image = success ? moduleBuilder.getImage() : null;
+        errorMessage = moduleBuilder.getErrorMessage();
+        if (event.shouldCommit()) {
+            int lines = 0;
+            for (ModuleBuilder.SourceFile source : sources) {
+                lines += (int) source.text.lines().count();
+            }
+            commit(event, lines, sources.size(), success);
+        }
+        return success;
+    }
+    
+    private void commit(SimulatorEvents.Assembly event, int lines, int modules, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.lines = lines;
+            event.modules = modules;
+            event.bytes = image != null ? image.size() : 0;
+            event.success = success;
+            event.commit();
+        }
+    }
+    
+    // Bulk load the assembled image into memory
+    public synchronized void loadProgram() {
+        if (image != null) {
+            image.loadInto(memory);
+            disassembler.setSymbols(image.getSymbols());
+        }
     }
     
-    // Reset CPU
-    public void reset() {
+    // Reset CPU (pending events were stamped with the old cycle count and are dropped)
+    public synchronized void reset() {
         cpu.reset();
+        scheduler.clear();
+        endReplay();
+        acia.arm();
     }
     
-    // Execute one instruction
-    public String step() {
-        return cpu.step();
+    // Bridge the serial port to host streams (either may be null). The previous connection
+    // is closed without holding the lock, so a host that stopped reading can't stall the CPU.
+    public void connectSerial(InputStream in, OutputStream out) {
+        acia.connect(in, out);
+        synchronized (this) {
+            acia.arm();
+        }
+    }
+    
+    // Execute one instruction, then any scheduled events that have come due (as runUntil does)
+    public synchronized String step() {
+        String instruction = cpu.step();
+        scheduler.runDue(cpu.cycles);
+        return instruction;
     }
     
     // Run until halt
-    public void run() {
+    public synchronized void run() {
         while (!cpu.halted) {
-            cpu.step();
+            runUntil(cpu.cycles + 1_000_000);
+        }
+    }
+    
+    // Run until the cycle counter reaches end (call while holding the lock).
+    // Scheduled events fire at the first instruction boundary at or after their cycle,
+    // and idle loops are fast-forwarded up to the next event or end, whichever is first.
+    void runUntil(long end) {
+        while (!cpu.halted && cpu.cycles < end) {
+            long limit = Math.min(end, scheduler.nextEventCycle());
+            while (!cpu.halted && cpu.cycles < limit) {
+                cpu.execute(limit);
+                cpu.skipIdleLoop(limit);
+            }
+            scheduler.runDue(cpu.cycles);
+        }
+    }
+    
+    // Hash of the machine state (see CPU.getStateHash), for comparing results across runs
+    public synchronized long getStateHash() {
+        return cpu.getStateHash();
+    }
+    
+    // Run one instruction per dispatch until the machine comes back to a state it was in
+    // before (Brent's cycle detection on the state hash), it halts, or maxInstructions have
+    // run. Returns the length of the cycle in instructions, 0 if halted, -1 if none was found.
+    // Pending scheduler events are not part of the state.
+    public synchronized long findStateCycle(long maxInstructions) {
+        long saved = cpu.getStateHash();
+        long power = 1;
+        long length = 0;
+        for (long i = 0; i < maxInstructions && !cpu.halted; i++) {
+            cpu.execute(false);
+            scheduler.runDue(cpu.cycles);
+            length++;
+            long hash = cpu.getStateHash();
+            if (hash == saved) {
+                return length;
+            }
+            if (length == power) {
+                saved = hash;
+                power *= 2;
+                length = 0;
+            }
+        }
+        return cpu.halted ? 0 : -1;
+    }
+    
+    // Run on a background thread until halted or stopped (onFinish runs on that thread)
+    public void start(Runnable onFinish) {
+        start(null, onFinish);
+    }
+    
+    // Same, onBreak runs on that thread when the run pauses at a breakpoint
+    public void start(Runnable onBreak, Runnable onFinish) {
+        stop();
+        runner = new SimulationRunner(this, clockRate, onBreak, onFinish);
+        runner.start();
+    }
+    
+    public void pause() {
+        SimulationRunner current = runner;
+        if (current != null) {
+            current.pause();
+        }
+    }
+    
+    public void resume() {
+        SimulationRunner current = runner;
+        if (current != null) {
+            current.resume();
+        }
+    }
+    
+    // Stop the background run and wait for it (must not be called while holding the simulator lock)
+    public void stop() {
+        SimulationRunner current = runner;
+        if (current != null) {
+            current.stop();
+            runner = null;
+        }
+    }
+    
+    public boolean isRunning() {
+        SimulationRunner current = runner;
+        return current != null && current.isAlive();
+    }
+    
+    public boolean isPaused() {
+        SimulationRunner current = runner;
+        return current != null && current.isPaused();
+    }
+    
+    // The current background run, null if none was started since the last stop
+    SimulationRunner getRunner() {
+        return runner;
+    }
+    
+    // Expose counters, registers and controls over JMX as program:type=Simulator,name=<name>
+    public synchronized SimulatorMonitor registerMBean(String name) throws JMException {
+        unregisterMBean();
+        SimulatorMonitor created = new SimulatorMonitor(this, name);
+        created.register();
+        monitor = created;
+        return monitor;
+    }
+    
+    public synchronized void unregisterMBean() throws JMException {
+        if (monitor != null) {
+            SimulatorMonitor registered = monitor;
+            monitor = null;
+            registered.unregister();
+        }
+    }
+    
+    // Raise IRQ, FIRQ or NMI (CPU.INT_*); taken at the next instruction once unmasked
+    public synchronized void requestInterrupt(int type) {
+        cpu.requestInterrupt(type);
+        if (recording != null) {
+            recording.interrupt(cpu.cycles, type);
+        }
+    }
+    
+    // Start logging every input from the host, from a snapshot of the current state
+    // (see Recording); a recording already running is discarded
+    public synchronized void startRecording() {
+        recording = new Recording(SaveState.capture(this), System.nanoTime());
+        recording.clockRate(cpu.cycles, clockRate);
+        acia.setRecording(recording);
+    }
+    
+    // End the recording at the current cycle; null if none was running
+    public synchronized Recording stopRecording() {
+        Recording finished = recording;
+        if (finished != null) {
+            finished.finish(cpu.cycles, cpu.instructions, cpu.getStateHash());
+            recording = null;
+            acia.setRecording(null);
+        }
+        return finished;
+    }
+    
+    public synchronized boolean isRecording() {
+        return recording != null;
+    }
+    
+    // Collect code coverage into coverage from here on (null stops); report it against
+    // getImage with Coverage.writeLcov or writeHtml
+    public synchronized void setCoverage(Coverage coverage) {
+        cpu.setCoverage(coverage);
+    }
+    
+    public synchronized Coverage getCoverage() {
+        return cpu.getCoverage();
+    }
+    
+    // Back to live input and superinstructions after a replay finished or was abandoned
+    // (its queued inputs were cleared)
+    void endReplay() {
+        acia.setReplaying(false);
+        cpu.setFusionEnabled(true);
+    }
+    
+    // Host time sample for the recording, if any (runner thread, holding the lock)
+    void recordHostTime() {
+        if (recording != null) {
+            recording.hostTime(cpu.cycles, System.nanoTime());
+        }
+    }
+    
+    // Set or clear a breakpoint on an instruction address
+    public synchronized void setBreakpoint(int address, boolean enabled) {
+        address &= 0xFFFF;
+        conditions[address] = null;
+        if (breakpoints[address] != enabled) {
+            breakpoints[address] = enabled;
+            breakpointCount += enabled ? 1 : -1;
+        }
+    }
+    
+    // Set a conditional breakpoint or tracepoint, replacing whatever was at its address
+    public synchronized void setBreakpoint(Breakpoint breakpoint) {
+        setBreakpoint(breakpoint.address, true);
+        conditions[breakpoint.address] = breakpoint.isPlain() ? null : breakpoint;
+    }
+    
+    public synchronized boolean isBreakpoint(int address) {
+        return breakpoints[address & 0xFFFF];
+    }
+    
+    // The conditional breakpoint or tracepoint at address, null if none or plain
+    public synchronized Breakpoint getBreakpoint(int address) {
+        return conditions[address & 0xFFFF];
+    }
+    
+    // Where tracepoints log (standard output by default)
+    public void setTraceOutput(Consumer<String> traceOutput) {
+        this.traceOutput = traceOutput;
+    }
+    
+    // The PC reached a set breakpoint bit: run its tracepoint and say whether to stop there
+    // (called by the runner while holding the lock)
+    boolean breakpointHit(int address) {
+        Breakpoint breakpoint = conditions[address];
+        return breakpoint == null || breakpoint.hit(cpu, memory, traceOutput);
+    }
+    
+    // Checked by the runner while holding the lock
+    boolean hasBreakpoints() {
+        return breakpointCount > 0;
+    }
+    
+    boolean[] getBreakpoints() {
+        return breakpoints;
+    }
+    
+    // Emulated clock rate in Hz for background runs, 0 for unthrottled
+    public void setClockRate(long clockRate) {
+        this.clockRate = clockRate;
+        synchronized (this) {
+            if (recording != null) {
+                recording.clockRate(cpu.cycles, clockRate);
+            }
+        }
+        SimulationRunner current = runner;
+        if (current != null) {
+            current.setClockRate(clockRate);
         }
     }
     
+    public long getClockRate() {
+        return clockRate;
+    }
+    
     // Getters
     public CPU getCPU() {
         return cpu;
@@ -47,7 +379,27 @@ public class Simulator {
         return memory;
     }
     
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+    
+    public ACIA getACIA() {
+        return acia;
+    }
+    
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+    
+    public Disassembler getDisassembler() {
+        return disassembler;
+    }
+    
+    public LinkedImage getImage() {
+        return image;
+    }
+    
     public String getAssemblerError() {
-        return assembler.getErrorMessage();
+        return errorMessage;
     }
 }
\ No newline at end of file
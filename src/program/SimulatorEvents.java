@@ -0,0 +1,174 @@
+package program;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+// Java Flight Recorder events for simulator activity, so emulator slowdowns can be
+// lined up with GC and JIT activity in the same recording. Event objects are only
+// filled in when a recording has the event enabled.
+public final class SimulatorEvents {
+
+    @Name("m6809.Assembly")
+    @Label("Assembly")
+    @Category("M6809 Simulator")
+    @Description("Assembling and linking a program")
+    public static class Assembly extends Event {
+        @Label("Source Lines")
+        public int lines;
+
+        @Label("Modules")
+        public int modules;
+
+        @Label("Image Size")
+        @DataAmount
+        public int bytes;
+
+        @Label("Cache Hit")
+        public boolean cached;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("m6809.RunSession")
+    @Label("Run Session")
+    @Category("M6809 Simulator")
+    @Description("A background run, from Run until it halts or is stopped")
+    public static class RunSession extends Event {
+        @Label("Instructions")
+        public long instructions;
+
+        @Label("Cycles")
+        public long cycles;
+
+        @Label("Clock Rate")
+        @Description("Emulated clock rate when the run ended, 0 for unthrottled")
+        @Frequency
+        public long clockRate;
+
+        @Label("Halt Reason")
+        public String haltReason;
+    }
+
+    @Name("m6809.Interrupt")
+    @Label("Interrupt")
+    @Category("M6809 Simulator")
+    @StackTrace(false)
+    public static class Interrupt extends Event {
+        @Label("Type")
+        public String type;
+
+        @Label("Interrupted PC")
+        public int pc;
+
+        @Label("Handler")
+        public int handler;
+
+        @Label("Cycle")
+        public long cycle;
+    }
+
+    @Name("m6809.Breakpoint")
+    @Label("Breakpoint Hit")
+    @Category("M6809 Simulator")
+    @StackTrace(false)
+    public static class Breakpoint extends Event {
+        @Label("Address")
+        public int address;
+
+        @Label("Cycle")
+        public long cycle;
+    }
+
+    @Name("m6809.Throughput")
+    @Label("Throughput")
+    @Category("M6809 Simulator")
+    @Period("1 s")
+    @StackTrace(false)
+    public static class Throughput extends Event {
+        @Label("Instructions per Second")
+        @Frequency
+        public long instructionsPerSecond;
+
+        @Label("Cycles per Second")
+        @Frequency
+        public long cyclesPerSecond;
+
+        @Label("Target Clock Rate")
+        @Frequency
+        public long clockRate;
+    }
+
+    // Running CPUs with their last throughput sample (time, instructions, cycles)
+    private static final Map<SimulationRunner, long[]> active = new ConcurrentHashMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent(Throughput.class, SimulatorEvents::sampleThroughput);
+    }
+
+    private SimulatorEvents() {
+    }
+
+    static void interrupt(String type, int pc, int handler, long cycle) {
+        Interrupt event = new Interrupt();
+        if (event.isEnabled()) {
+            event.type = type;
+            event.pc = pc;
+            event.handler = handler;
+            event.cycle = cycle;
+            event.commit();
+        }
+    }
+
+    static void breakpoint(int address, long cycle) {
+        Breakpoint event = new Breakpoint();
+        if (event.isEnabled()) {
+            event.address = address;
+            event.cycle = cycle;
+            event.commit();
+        }
+    }
+
+    // Track a runner for the periodic throughput samples
+    static void started(SimulationRunner runner, CPU cpu) {
+        active.put(runner, new long[] { System.nanoTime(), cpu.instructions, cpu.cycles });
+    }
+
+    static void finished(SimulationRunner runner) {
+        active.remove(runner);
+    }
+
+    // Runs on the recorder's periodic thread; the counters are plain fields read racily,
+    // which is fine for a rate sampled once a second
+    private static void sampleThroughput() {
+        long now = System.nanoTime();
+        for (Map.Entry<SimulationRunner, long[]> entry : active.entrySet()) {
+            SimulationRunner runner = entry.getKey();
+            CPU cpu = runner.getCPU();
+            long[] last = entry.getValue();
+            long instructions = cpu.instructions;
+            long cycles = cpu.cycles;
+            long elapsed = Math.max(1, now - last[0]);
+
+            Throughput event = new Throughput();
+            event.instructionsPerSecond = (instructions - last[1]) * 1_000_000_000L / elapsed;
+            event.cyclesPerSecond = (cycles - last[2]) * 1_000_000_000L / elapsed;
+            event.clockRate = runner.getClockRate();
+            event.commit();
+
+            last[0] = now;
+            last[1] = instructions;
+            last[2] = cycles;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package program;
+
+import javax.management.ConstructorParameters;
+
+// Management interface of a Simulator, registered by Simulator.registerMBean
+public interface SimulatorMXBean {
+
+    // Consistent copy of the CPU registers
+    public static class Registers {
+        private final int a, b, x, y, s, u, pc, dp, cc;
+
+        @ConstructorParameters({ "a", "b", "x", "y", "s", "u", "pc", "dp", "cc" })
+        public Registers(int a, int b, int x, int y, int s, int u, int pc, int dp, int cc) {
+            this.a = a;
+            this.b = b;
+            this.x = x;
+            this.y = y;
+            this.s = s;
+            this.u = u;
+            this.pc = pc;
+            this.dp = dp;
+            this.cc = cc;
+        }
+
+        public int getA() { return a; }
+        public int getB() { return b; }
+        public int getX() { return x; }
+        public int getY() { return y; }
+        public int getS() { return s; }
+        public int getU() { return u; }
+        public int getPc() { return pc; }
+        public int getDp() { return dp; }
+        public int getCc() { return cc; }
+    }
+
+    // Counters since the last reset
+    long getInstructions();
+
+    long getCycles();
+
+    // Millions of instructions per second since the previous read of this attribute
+    double getMips();
+
+    boolean isHalted();
+
+    boolean isRunning();
+
+    boolean isPaused();
+
+    int getPC();
+
+    Registers getRegisters();
+
+    // Emulated clock rate in Hz, 0 for unthrottled
+    long getClockRate();
+
+    void setClockRate(long clockRate);
+
+    // Operations
+    void pause();
+
+    void resume();
+
+    // Stops a background run, then resets the CPU
+    void reset();
+
+    // Hex dump of length bytes from address (at most 4096)
+    String dumpMemory(int address, int length);
+}
@@ -0,0 +1,139 @@
+package program;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// MXBean of one Simulator. Counters and PC are plain CPU fields read without the lock,
+// so the run loop pays nothing for being watched; a reading may be a slice behind.
+// Only the register snapshot and memory dumps take the lock, to be consistent.
+public class SimulatorMonitor implements SimulatorMXBean {
+    private static final int MAX_DUMP = 4096;
+
+    private final Simulator simulator;
+    private final ObjectName name;
+
+    // Previous MIPS sample
+    private long sampleTime = System.nanoTime();
+    private long sampleInstructions;
+
+    public SimulatorMonitor(Simulator simulator, String name) throws JMException {
+        this.simulator = simulator;
+        this.name = new ObjectName("program:type=Simulator,name=" + ObjectName.quote(name));
+    }
+
+    public ObjectName getObjectName() {
+        return name;
+    }
+
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    @Override
+    public long getInstructions() {
+        return simulator.getCPU().instructions;
+    }
+
+    @Override
+    public long getCycles() {
+        return simulator.getCPU().cycles;
+    }
+
+    @Override
+    public synchronized double getMips() {
+        long now = System.nanoTime();
+        long instructions = simulator.getCPU().instructions;
+        long elapsed = now - sampleTime;
+        double mips = elapsed > 0 && instructions >= sampleInstructions
+                ? (instructions - sampleInstructions) * 1000.0 / elapsed : 0;
+        sampleTime = now;
+        sampleInstructions = instructions;
+        return mips;
+    }
+
+    @Override
+    public boolean isHalted() {
+        return simulator.getCPU().halted;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return simulator.isRunning();
+    }
+
+    @Override
+    public boolean isPaused() {
+        return simulator.isPaused();
+    }
+
+    @Override
+    public int getPC() {
+        return simulator.getCPU().regPC;
+    }
+
+    @Override
+    public Registers getRegisters() {
+        synchronized (simulator) {
+            CPU cpu = simulator.getCPU();
+            return new Registers(cpu.regA, cpu.regB, cpu.regX, cpu.regY, cpu.regS, cpu.regU,
+                    cpu.regPC, cpu.regDP, cpu.regCC);
+        }
+    }
+
+    @Override
+    public long getClockRate() {
+        return simulator.getClockRate();
+    }
+
+    @Override
+    public void setClockRate(long clockRate) {
+        if (clockRate < 0) {
+            throw new IllegalArgumentException("Clock rate must be 0 or positive");
+        }
+        simulator.setClockRate(clockRate);
+    }
+
+    @Override
+    public void pause() {
+        simulator.pause();
+    }
+
+    @Override
+    public void resume() {
+        simulator.resume();
+    }
+
+    @Override
+    public void reset() {
+        simulator.stop();
+        simulator.reset();
+    }
+
+    @Override
+    public String dumpMemory(int address, int length) {
+        if (address < 0 || address > 0xFFFF || length < 0) {
+            throw new IllegalArgumentException("Address must be $0000-$FFFF and length positive");
+        }
+        length = Math.min(Math.min(length, MAX_DUMP), 0x10000 - address);
+        byte[] data;
+        synchronized (simulator) {
+            data = simulator.getMemory().dump(address, length);
+        }
+        StringBuilder text = new StringBuilder(length * 3 + length / 16 * 8);
+        for (int i = 0; i < data.length; i++) {
+            if (i % 16 == 0) {
+                if (i > 0) {
+                    text.append('\n');
+                }
+                text.append(String.format("%04X:", address + i));
+            }
+            text.append(String.format(" %02X", data[i] & 0xFF));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,248 @@
+package program;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+// Colors mnemonics, operands, labels and comments of an assembly document.
+// Edits only mark their lines dirty; after a short pause the dirty lines are
+// tokenized on a background thread and the colors applied back on the EDT,
+// so typing never waits for highlighting.
+public class SyntaxHighlighter {
+    private static final int DELAY = 150;        // ms of quiet before highlighting
+    private static final int MAX_BATCH = 2000;   // lines per background batch
+
+    // Token kinds
+    private static final int PLAIN = 0;
+    private static final int MNEMONIC = 1;
+    private static final int DIRECTIVE = 2;
+    private static final int OPERAND = 3;
+    private static final int NUMBER = 4;
+    private static final int LABEL = 5;
+    private static final int COMMENT = 6;
+
+    private static final String[] DIRECTIVES = {
+        "END", "SECTION", "EXPORT", "INCLUDE", "MACRO", "ENDM", "DEFINE", "IF", "IFDEF", "IFNDEF", "ELSE", "ENDIF"
+    };
+
+    private final StyledDocument document;
+    private final SimpleAttributeSet[] styles = new SimpleAttributeSet[7];
+    private final Timer timer;
+    private int dirtyFirst = Integer.MAX_VALUE; // Dirty line range, inclusive
+    private int dirtyLast = -1;
+    private int version;                        // Bumped on every edit
+    private boolean working;
+
+    public SyntaxHighlighter(StyledDocument document, Color plain) {
+        this.document = document;
+        styles[PLAIN] = style(plain, false);
+        styles[MNEMONIC] = style(new Color(86, 156, 214), true);
+        styles[DIRECTIVE] = style(new Color(197, 134, 192), true);
+        styles[OPERAND] = style(new Color(220, 220, 170), false);
+        styles[NUMBER] = style(new Color(181, 206, 168), false);
+        styles[LABEL] = style(new Color(78, 201, 176), false);
+        styles[COMMENT] = style(new Color(106, 153, 85), false);
+
+        timer = new Timer(DELAY, e -> highlightDirtyLines());
+        timer.setRepeats(false);
+
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                edited(e.getOffset(), e.getOffset() + e.getLength());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                edited(e.getOffset(), e.getOffset());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Our own attribute changes
+            }
+        });
+        markDirty(0, document.getDefaultRootElement().getElementCount() - 1);
+    }
+
+    private static SimpleAttributeSet style(Color color, boolean bold) {
+        SimpleAttributeSet set = new SimpleAttributeSet();
+        StyleConstants.setForeground(set, color);
+        StyleConstants.setBold(set, bold);
+        return set;
+    }
+
+    private void edited(int start, int end) {
+        version++;
+        Element root = document.getDefaultRootElement();
+        markDirty(root.getElementIndex(start), root.getElementIndex(end));
+    }
+
+    private void markDirty(int first, int last) {
+        dirtyFirst = Math.min(dirtyFirst, first);
+        dirtyLast = Math.max(dirtyLast, last);
+        timer.restart();
+    }
+
+    // Take a batch of dirty lines (on the EDT) and tokenize them in the background
+    private void highlightDirtyLines() {
+        if (working || dirtyLast < 0) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        int first = Math.min(dirtyFirst, root.getElementCount() - 1);
+        int last = Math.min(Math.min(dirtyLast, root.getElementCount() - 1), first + MAX_BATCH - 1);
+
+        // Only the batch's text is copied here, which is proportional to what changed
+        List<String> lines = new ArrayList<>(last - first + 1);
+        try {
+            for (int line = first; line <= last; line++) {
+                Element element = root.getElement(line);
+                lines.add(document.getText(element.getStartOffset(),
+                        element.getEndOffset() - element.getStartOffset()));
+            }
+        } catch (BadLocationException e) {
+            timer.restart();
+            return;
+        }
+
+        // Leave the rest of the dirty range for the next batch
+        if (last >= dirtyLast) {
+            dirtyFirst = Integer.MAX_VALUE;
+            dirtyLast = -1;
+        } else {
+            dirtyFirst = last + 1;
+        }
+
+        int startVersion = version;
+        int firstLine = first;
+        working = true;
+        new SwingWorker<List<int[]>, Void>() {
+            @Override
+            protected List<int[]> doInBackground() {
+                List<int[]> tokens = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    tokens.add(tokenize(line));
+                }
+                return tokens;
+            }
+
+            @Override
+            protected void done() {
+                working = false;
+                List<int[]> tokens;
+                try {
+                    tokens = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    return;
+                }
+                if (version != startVersion) {
+                    // Edited meanwhile, offsets may be stale: redo these lines
+                    markDirty(firstLine, firstLine + tokens.size() - 1);
+                    return;
+                }
+                apply(firstLine, tokens);
+                if (dirtyLast >= 0) {
+                    timer.restart();
+                }
+            }
+        }.execute();
+    }
+
+    private void apply(int firstLine, List<int[]> tokens) {
+        Element root = document.getDefaultRootElement();
+        for (int i = 0; i < tokens.size() && firstLine + i < root.getElementCount(); i++) {
+            Element element = root.getElement(firstLine + i);
+            int start = element.getStartOffset();
+            int[] spans = tokens.get(i);
+            document.setCharacterAttributes(start, element.getEndOffset() - start, styles[PLAIN], true);
+            for (int s = 0; s < spans.length; s += 3) {
+                document.setCharacterAttributes(start + spans[s], spans[s + 1], styles[spans[s + 2]], true);
+            }
+        }
+    }
+
+    // Spans of one line as (start, length, kind) triples; runs on the worker thread
+    static int[] tokenize(String line) {
+        List<Integer> spans = new ArrayList<>();
+        int length = line.length();
+        int comment = line.indexOf(';');
+        int end = comment >= 0 ? comment : length;
+
+        int pos = skipSpaces(line, 0, end);
+        int word = skipWord(line, pos, end);
+
+        // Label
+        if (word < end && line.charAt(word) == ':' && word > pos) {
+            add(spans, pos, word + 1 - pos, LABEL);
+            pos = skipSpaces(line, word + 1, end);
+            word = skipWord(line, pos, end);
+        }
+
+        // Mnemonic or directive, then the operand
+        if (word > pos) {
+            String keyword = line.substring(pos, word).toUpperCase();
+            int kind = isDirective(keyword) ? DIRECTIVE : Disassembler.isMnemonic(keyword) ? MNEMONIC : PLAIN;
+            add(spans, pos, word - pos, kind);
+            pos = skipSpaces(line, word, end);
+            int operandEnd = end;
+            while (operandEnd > pos && Character.isWhitespace(line.charAt(operandEnd - 1))) {
+                operandEnd--;
+            }
+            if (operandEnd > pos) {
+                char c = line.charAt(pos);
+                boolean number = c == '#' || c == '$' || Character.isDigit(c);
+                add(spans, pos, operandEnd - pos, number ? NUMBER : OPERAND);
+            }
+        }
+
+        if (comment >= 0) {
+            add(spans, comment, length - comment, COMMENT);
+        }
+
+        int[] result = new int[spans.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = spans.get(i);
+        }
+        return result;
+    }
+
+    private static void add(List<Integer> spans, int start, int length, int kind) {
+        spans.add(start);
+        spans.add(length);
+        spans.add(kind);
+    }
+
+    private static int skipSpaces(String line, int pos, int end) {
+        while (pos < end && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipWord(String line, int pos, int end) {
+        while (pos < end && !Character.isWhitespace(line.charAt(pos)) && line.charAt(pos) != ':') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDirective(String keyword) {
+        for (String directive : DIRECTIVES) {
+            if (directive.equals(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
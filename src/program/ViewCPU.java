@@ -1,12 +1,25 @@
 package program;
 
 import java.awt.*;
+import java.util.List;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.text.BadLocationException;
 
 public class ViewCPU extends JPanel {
     final JTextField txtA, txtB, txtD, txtX, txtY, txtS, txtU, txtPC, txtDP, txtCC;
     final JLabel lblCurrentInstruction;
+    final JLabel lblIps, lblCps, lblClock, lblTotals;
+    final JTextArea txtTrace;
+    
+    // Previous performance sample, rates are computed between samples
+    private static final long RATE_INTERVAL = 500_000_000L; // ns
+    private long sampleTime, sampleInstructions, sampleCycles;
+    
+    private static final int TRACE_LINES = 200; // Tracepoint lines kept in the trace area
+    
+    private static final Color FIELD_COLOR = new Color(50, 50, 50);
+    private static final Color CHANGED_COLOR = new Color(0, 90, 90);
 
     public ViewCPU() {
         // Set up layout and styling
@@ -74,6 +87,34 @@ public class ViewCPU extends JPanel {
         centerGrid.add(indexGroup);
         centerGrid.add(Box.createVerticalStrut(10));
         centerGrid.add(pointerGroup);
+        
+        // Performance (sampled from the run loop's counters on the UI timer)
+        JPanel perfGroup = new JPanel(new GridLayout(2, 2, 10, 2));
+        perfGroup.setOpaque(false);
+        perfGroup.setBorder(createTitledBorder("PERFORMANCE"));
+        lblIps = createHudLabel("0 inst/s");
+        lblCps = createHudLabel("0 cycles/s");
+        lblClock = createHudLabel("0.000 / 1.000 MHz");
+        lblTotals = createHudLabel("0 inst / 0 cycles");
+        perfGroup.add(lblIps);
+        perfGroup.add(lblCps);
+        perfGroup.add(lblClock);
+        perfGroup.add(lblTotals);
+        centerGrid.add(Box.createVerticalStrut(10));
+        centerGrid.add(perfGroup);
+        
+        // Tracepoint output, newest line last
+        JPanel traceGroup = new JPanel(new BorderLayout());
+        traceGroup.setOpaque(false);
+        traceGroup.setBorder(createTitledBorder("TRACE"));
+        txtTrace = new JTextArea(4, 30);
+        txtTrace.setEditable(false);
+        txtTrace.setFont(new Font("Monospaced", Font.PLAIN, 11));
+        txtTrace.setBackground(FIELD_COLOR);
+        txtTrace.setForeground(Color.CYAN);
+        traceGroup.add(new JScrollPane(txtTrace));
+        centerGrid.add(Box.createVerticalStrut(10));
+        centerGrid.add(traceGroup);
 
         // The Status Bar
         JPanel bottomBar = new JPanel(new GridLayout(3, 1, 0, 5));
@@ -98,19 +139,98 @@ public class ViewCPU extends JPanel {
 
     // Update all CPU registers from CPU object
     public void updateRegisters(CPU cpu) {
-        txtA.setText(String.format("%02X", cpu.regA));
-        txtB.setText(String.format("%02X", cpu.regB));
-        txtD.setText(String.format("%04X", cpu.getRegD()));
-        txtX.setText(String.format("%04X", cpu.regX));
-        txtY.setText(String.format("%04X", cpu.regY));
-        txtS.setText(String.format("%04X", cpu.regS));
-        txtU.setText(String.format("%04X", cpu.regU));
-        txtPC.setText(String.format("%04X", cpu.regPC));
-        txtDP.setText(String.format("%02X", cpu.regDP));
+        updateRegisters(cpu, CPU.REG_ALL);
+    }
+    
+    // Update only the registers in changed (CPU.REG_* bits) and highlight them
+    public void updateRegisters(CPU cpu, int changed) {
+        if ((changed & CPU.REG_A) != 0) txtA.setText(String.format("%02X", cpu.regA));
+        if ((changed & CPU.REG_B) != 0) txtB.setText(String.format("%02X", cpu.regB));
+        if ((changed & (CPU.REG_A | CPU.REG_B)) != 0) txtD.setText(String.format("%04X", cpu.getRegD()));
+        if ((changed & CPU.REG_X) != 0) txtX.setText(String.format("%04X", cpu.regX));
+        if ((changed & CPU.REG_Y) != 0) txtY.setText(String.format("%04X", cpu.regY));
+        if ((changed & CPU.REG_S) != 0) txtS.setText(String.format("%04X", cpu.regS));
+        if ((changed & CPU.REG_U) != 0) txtU.setText(String.format("%04X", cpu.regU));
+        if ((changed & CPU.REG_PC) != 0) txtPC.setText(String.format("%04X", cpu.regPC));
+        if ((changed & CPU.REG_DP) != 0) txtDP.setText(String.format("%02X", cpu.regDP));
         
         // Convert CC to binary string
-        String ccBinary = String.format("%8s", Integer.toBinaryString(cpu.regCC & 0xFF)).replace(' ', '0');
-        txtCC.setText(ccBinary);
+        if ((changed & CPU.REG_CC) != 0) {
+            String ccBinary = String.format("%8s", Integer.toBinaryString(cpu.regCC & 0xFF)).replace(' ', '0');
+            txtCC.setText(ccBinary);
+        }
+        
+        // Highlight what changed since the previous update (skipped for full refreshes)
+        if (changed != CPU.REG_ALL) {
+            highlight(txtA, changed, CPU.REG_A);
+            highlight(txtB, changed, CPU.REG_B);
+            highlight(txtD, changed, CPU.REG_A | CPU.REG_B);
+            highlight(txtX, changed, CPU.REG_X);
+            highlight(txtY, changed, CPU.REG_Y);
+            highlight(txtS, changed, CPU.REG_S);
+            highlight(txtU, changed, CPU.REG_U);
+            highlight(txtPC, changed, CPU.REG_PC);
+            highlight(txtDP, changed, CPU.REG_DP);
+            highlight(txtCC, changed, CPU.REG_CC);
+        }
+    }
+    
+    private void highlight(JTextField field, int changed, int bits) {
+        Color background = (changed & bits) != 0 ? CHANGED_COLOR : FIELD_COLOR;
+        if (!field.getBackground().equals(background)) {
+            field.setBackground(background);
+        }
+    }
+    
+    // Show counters since reset and, while running, the rates since the previous sample.
+    // targetRate is the configured clock in Hz (0 for unlimited).
+    public void updatePerformance(long instructions, long cycles, long targetRate, boolean running) {
+        lblTotals.setText(String.format("%,d inst / %,d cycles", instructions, cycles));
+        String target = targetRate == 0 ? "unlimited" : String.format("%.3f MHz", targetRate / 1e6);
+        
+        long now = System.nanoTime();
+        if (!running || instructions < sampleInstructions || cycles < sampleCycles) {
+            // Stopped or reset: restart the rate window
+            sampleTime = now;
+            sampleInstructions = instructions;
+            sampleCycles = cycles;
+            if (!running) {
+                lblIps.setText("0 inst/s");
+                lblCps.setText("0 cycles/s");
+                lblClock.setText("0.000 MHz / " + target);
+            }
+            return;
+        }
+        
+        long elapsed = now - sampleTime;
+        if (elapsed < RATE_INTERVAL) {
+            return;
+        }
+        double ips = (instructions - sampleInstructions) * 1e9 / elapsed;
+        double cps = (cycles - sampleCycles) * 1e9 / elapsed;
+        lblIps.setText(String.format("%,.0f inst/s", ips));
+        lblCps.setText(String.format("%,.0f cycles/s", cps));
+        lblClock.setText(String.format("%.3f MHz / %s", cps / 1e6, target));
+        sampleTime = now;
+        sampleInstructions = instructions;
+        sampleCycles = cycles;
+    }
+    
+    // Append tracepoint lines, dropping the oldest past TRACE_LINES
+    public void appendTrace(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        txtTrace.append(String.join("\n", lines) + "\n");
+        int excess = txtTrace.getLineCount() - 1 - TRACE_LINES;
+        if (excess > 0) {
+            try {
+                txtTrace.replaceRange("", 0, txtTrace.getLineStartOffset(excess));
+            } catch (BadLocationException e) {
+                txtTrace.setText("");
+            }
+        }
+        txtTrace.setCaretPosition(txtTrace.getDocument().getLength());
     }
     
     // Set instruction text
@@ -125,12 +245,19 @@ public class ViewCPU extends JPanel {
         field.setHorizontalAlignment(JTextField.CENTER);
         field.setEditable(false);
         field.setFocusable(false);
-        field.setBackground(new Color(50, 50, 50));
+        field.setBackground(FIELD_COLOR);
         field.setForeground(Color.WHITE);
         field.setBorder(BorderFactory.createLineBorder(Color.CYAN));
         return field;
     }
 
+    private JLabel createHudLabel(String text) {
+        JLabel label = new JLabel(text, SwingConstants.CENTER);
+        label.setForeground(Color.CYAN);
+        label.setFont(new Font("Monospaced", Font.PLAIN, 11));
+        return label;
+    }
+
     // Create Labeled Field Panels
     private JPanel createLabeledField(String label, JTextField field) {
         JPanel p = new JPanel(new FlowLayout(FlowLayout.CENTER));
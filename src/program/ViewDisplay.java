@@ -0,0 +1,68 @@
+package program;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.swing.*;
+
+// Shows the framebuffer, scaled up. At the display refresh rate it copies only the
+// scanlines written since the last frame into the image and repaints their rectangle.
+public class ViewDisplay extends JPanel {
+    private static final int SCALE = 4;
+    private static final int REFRESH = 1000 / 60; // ms
+
+    private final FrameBuffer frameBuffer;
+    private final Object lock;
+    private final BufferedImage image;
+    private final int[] rgb;
+    private final Timer timer;
+
+    public ViewDisplay(FrameBuffer frameBuffer, Object lock) {
+        this.frameBuffer = frameBuffer;
+        this.lock = lock;
+        image = new BufferedImage(FrameBuffer.WIDTH, FrameBuffer.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        setPreferredSize(new Dimension(FrameBuffer.WIDTH * SCALE, FrameBuffer.HEIGHT * SCALE));
+        setBackground(Color.BLACK);
+        timer = new Timer(REFRESH, e -> refresh());
+    }
+
+    // Repaint at the refresh rate while showing
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    // Copy the dirty scanlines and repaint the band that holds them
+    public void refresh() {
+        int first = -1;
+        int last = -1;
+        synchronized (lock) {
+            long rows = frameBuffer.takeDirtyRows();
+            if (rows == 0) {
+                return;
+            }
+            first = Long.numberOfTrailingZeros(rows);
+            last = 63 - Long.numberOfLeadingZeros(rows);
+            for (int row = first; row <= last; row++) {
+                if ((rows & (1L << row)) != 0) {
+                    frameBuffer.copyRow(row, rgb, row * FrameBuffer.WIDTH);
+                }
+            }
+        }
+        repaint(0, first * SCALE, FrameBuffer.WIDTH * SCALE, (last - first + 1) * SCALE);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        g.drawImage(image, 0, 0, FrameBuffer.WIDTH * SCALE, FrameBuffer.HEIGHT * SCALE, null);
+    }
+}
@@ -2,46 +2,49 @@ package program;
 
 import java.awt.*;
 import javax.swing.*;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.TabSet;
+import javax.swing.text.TabStop;
 
 public class ViewEditor extends JPanel {
 
-    private JTextArea editorPane;
-    private JTextArea lineNumbers;
+    private JTextPane editorPane;
+    private LineNumberGutter lineNumbers;
+    private SyntaxHighlighter highlighter;
 
     // Buttons
-    public JButton btnAssemble, btnStep, btnRun, btnReset;
+    public JButton btnAssemble, btnStep, btnRun, btnStop, btnReset;
+    
+    // Run speed
+    public JComboBox<String> speedSelector;
+    private static final String[] SPEED_NAMES = {"10 Hz", "100 Hz", "10 kHz", "100 kHz", "1 MHz", "2 MHz", "Unlimited"};
+    private static final long[] SPEED_RATES = {10, 100, 10_000, 100_000, 1_000_000, 2_000_000, 0};
 
     public ViewEditor() {
         setLayout(new BorderLayout());
         setBackground(new Color(30, 30, 30));
 
-        // Editor Area
-        editorPane = new JTextArea();
+        // Editor Area (no line wrapping, so lines and gutter rows stay aligned)
+        editorPane = new JTextPane() {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return getParent() != null && getUI().getPreferredSize(this).width <= getParent().getWidth();
+            }
+        };
         editorPane.setBackground(new Color(20, 20, 20));
         editorPane.setForeground(new Color(220, 220, 220));
         editorPane.setCaretColor(Color.WHITE);
         editorPane.setFont(new Font("Monospaced", Font.PLAIN, 14));
         editorPane.setMargin(new Insets(5, 5, 5, 5));
-        editorPane.setTabSize(4);
         
         // Add sample program
         editorPane.setText("; Sample Program\nLDA #$05\nADDA #$03\nSTA $20\nEND");
+        setTabSize(4);
 
-        lineNumbers = new JTextArea("1");
-        lineNumbers.setBackground(new Color(40, 40, 40));
-        lineNumbers.setForeground(new Color(120, 120, 120));
-        lineNumbers.setFont(new Font("Monospaced", Font.PLAIN, 14));
-        lineNumbers.setEditable(false);
-        lineNumbers.setMargin(new Insets(5, 5, 5, 5));
-
-        editorPane.addCaretListener(e -> {
-            int lineCount = editorPane.getLineCount();
-            StringBuilder text = new StringBuilder();
-            for (int i = 1; i <= lineCount; i++) {
-                text.append(i).append("\n");
-            }
-            lineNumbers.setText(text.toString());
-        });
+        // Gutter paints visible line numbers; highlighting runs off the EDT on edited lines
+        lineNumbers = new LineNumberGutter(editorPane);
+        highlighter = new SyntaxHighlighter(editorPane.getStyledDocument(), editorPane.getForeground());
 
         JScrollPane scrollPane = new JScrollPane(editorPane);
         scrollPane.setRowHeaderView(lineNumbers);
@@ -57,13 +60,23 @@ public class ViewEditor extends JPanel {
         btnAssemble = createStyledButton("Assemble", btnHoverColor);
         btnStep = createStyledButton("Step Execution", btnHoverColor);
         btnRun = createStyledButton("Run All", btnHoverColor);
+        btnStop = createStyledButton("Stop", btnHoverColor);
         btnReset = createStyledButton("Reset CPU", btnHoverColor);
+        
+        speedSelector = new JComboBox<>(SPEED_NAMES);
+        speedSelector.setSelectedItem("1 MHz");
+        speedSelector.setFocusable(false);
+        speedSelector.setFont(new Font("SansSerif", Font.BOLD, 12));
+        speedSelector.setBackground(new Color(60, 60, 60));
+        speedSelector.setForeground(Color.WHITE);
 
         toolbar.add(btnAssemble);
         toolbar.add(new JSeparator(SwingConstants.VERTICAL));
         toolbar.add(btnStep);
         toolbar.add(btnRun);
+        toolbar.add(btnStop);
         toolbar.add(btnReset);
+        toolbar.add(speedSelector);
 
         add(toolbar, BorderLayout.SOUTH);
     }
@@ -72,6 +85,31 @@ public class ViewEditor extends JPanel {
     public String getEditorText() {
         return editorPane.getText();
     }
+    
+    // Replace the editor text (e.g. a loaded source file)
+    public void setEditorText(String text) {
+        editorPane.setText(text);
+        editorPane.setCaretPosition(0);
+        setTabSize(4);
+    }
+    
+    // Tab stops every size characters
+    private void setTabSize(int size) {
+        FontMetrics metrics = editorPane.getFontMetrics(editorPane.getFont());
+        int width = metrics.charWidth(' ') * size;
+        TabStop[] stops = new TabStop[100];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = new TabStop((i + 1) * width);
+        }
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        StyleConstants.setTabSet(attributes, new TabSet(stops));
+        editorPane.getStyledDocument().setParagraphAttributes(0, editorPane.getDocument().getLength(), attributes, false);
+    }
+    
+    // Selected clock rate in Hz (0 for unlimited)
+    public long getClockRate() {
+        return SPEED_RATES[speedSelector.getSelectedIndex()];
+    }
 
     private JButton createStyledButton(String text, Color hoverColor) {
         JButton b = new JButton(text);
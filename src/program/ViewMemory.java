@@ -3,40 +3,44 @@ package program;
 import java.awt.*;
 import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 
 public class ViewMemory extends JPanel {
     final JTable table;
-    final DefaultTableModel model;
-    int offset; // To show real addresses (e.g. $8000 for ROM)
+    final MemoryTableModel model;
+    final JTextField txtGoto;
+    final JScrollPane scrollPane;
 
-    public ViewMemory(int size, int addressOffset) {
-        this.offset = addressOffset;
+    public ViewMemory(Memory memory, int start, int size) {
         setLayout(new BorderLayout());
         setBackground(new Color(30, 30, 30));
 
-        // Define Columns
-        String[] columnNames = {"Address", "Hex", "Binary"};
-        model = new DefaultTableModel(columnNames, 0) {
-            @Override // Disable cell editing
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
-
+        // Rows are read from memory on demand, so the whole range can be scrolled
+        model = new MemoryTableModel(memory, start, size);
         table = new JTable(model);
         setupTableStyle();
 
-        // Initial Data Load (Placeholder rows)
-        for (int i = 0; i < size && i < 256; i++) {
-            updateRow(i, 0x00);
-        }
-
         // add scroll pane to table
-        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane = new JScrollPane(table);
         scrollPane.setBorder(BorderFactory.createEmptyBorder()); // no border
 
-        add(scrollPane, BorderLayout.CENTER); 
+        // Jump to address
+        JPanel gotoBar = new JPanel(new BorderLayout(5, 0));
+        gotoBar.setBackground(new Color(30, 30, 30));
+        gotoBar.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
+        JLabel lblGoto = new JLabel("Go to $");
+        lblGoto.setForeground(Color.GRAY);
+        txtGoto = new JTextField();
+        txtGoto.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        txtGoto.setBackground(new Color(50, 50, 50));
+        txtGoto.setForeground(Color.WHITE);
+        txtGoto.setCaretColor(Color.WHITE);
+        txtGoto.setBorder(BorderFactory.createLineBorder(new Color(60, 60, 60)));
+        txtGoto.addActionListener(e -> gotoAddress(txtGoto.getText()));
+        gotoBar.add(lblGoto, BorderLayout.WEST);
+        gotoBar.add(txtGoto, BorderLayout.CENTER);
+
+        add(gotoBar, BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
     }
 
     // Style Memory Table
@@ -47,12 +51,10 @@ public class ViewMemory extends JPanel {
         table.setFont(new Font("Monospaced", Font.PLAIN, 12));
         table.setRowHeight(20);
 
-        // Center Alignment
-        DefaultTableCellRenderer centerRenderer = new DefaultTableCellRenderer();
-        centerRenderer.setHorizontalAlignment(JLabel.CENTER);
-        // table.getColumnModel().getColumn(0).setCellRenderer(centerRenderer);
-        table.getColumnModel().getColumn(1).setCellRenderer(centerRenderer);
-        // table.getColumnModel().getColumn(2).setCellRenderer(centerRenderer);
+        // Center Alignment, recently changed bytes highlighted
+        table.getColumnModel().getColumn(0).setCellRenderer(new ChangeRenderer(JLabel.LEFT));
+        table.getColumnModel().getColumn(1).setCellRenderer(new ChangeRenderer(JLabel.CENTER));
+        table.getColumnModel().getColumn(2).setCellRenderer(new ChangeRenderer(JLabel.LEFT));
 
         // Header styling
         table.getTableHeader().setBackground(new Color(45, 45, 45));
@@ -62,18 +64,49 @@ public class ViewMemory extends JPanel {
         table.getTableHeader().setResizingAllowed(false); // No column resizing
 
     }
-    
-    // update table row
-    final public void updateRow(int index, int value) {
-        String address = String.format("$%04X", index + offset);
-        String hexValue = String.format("%02X", value & 0xFF); // Two-digit hex
-        String binaryValue = String.format("%8s", Integer.toBinaryString(value & 0xFF)).replace(' ', '0');
-
-        if (index < model.getRowCount()) { // Update existing row
-            model.setValueAt(hexValue, index, 1); // Update Hex Value
-            model.setValueAt(binaryValue, index, 2); // Update Binary Value
-        } else { // Add new row if it doesn't exist
-            model.addRow(new Object[]{address, hexValue, binaryValue});
+
+    // Scroll so the given address (hex) is at the top and select it
+    public void gotoAddress(String text) {
+        int address;
+        try {
+            address = Integer.parseInt(text.trim().replace("$", ""), 16);
+        } catch (NumberFormatException e) {
+            txtGoto.setForeground(Color.RED);
+            return;
+        }
+        int row = model.rowOf(address);
+        if (row < 0) {
+            txtGoto.setForeground(Color.RED);
+            return;
+        }
+        txtGoto.setForeground(Color.WHITE);
+        Rectangle cell = table.getCellRect(row, 0, true);
+        cell.height = scrollPane.getViewport().getHeight();
+        table.scrollRectToVisible(cell);
+        table.setRowSelectionInterval(row, row);
+    }
+
+    // Repaint only the bytes that changed in the given dirty pages
+    public void sync(long[] dirtyPages) {
+        model.sync(dirtyPages);
+    }
+
+    // Highlights bytes that changed in the last update
+    private class ChangeRenderer extends DefaultTableCellRenderer {
+        final Color changedColor = new Color(0, 90, 90);
+
+        ChangeRenderer(int alignment) {
+            setHorizontalAlignment(alignment);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            if (!isSelected) {
+                setBackground(model.isRecentlyChanged(row) ? changedColor : table.getBackground());
+            }
+            return this;
         }
     }
 }